@@ -0,0 +1,67 @@
+package com.codenomads.springrestapidemo.benchmark;
+
+import com.codenomads.springrestapidemo.configuration.JacksonConfiguration;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonBenchmark {
+
+    @Param({"50"})
+    private int pageSize;
+
+    private ObjectMapper objectMapper;
+    private UserDto userDto;
+    private String userJson;
+    private Page<UserDto> page;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        objectMapper = new JacksonConfiguration().objectMapper(Jackson2ObjectMapperBuilder.json());
+        userDto = user(0);
+        userJson = objectMapper.writeValueAsString(userDto);
+        List<UserDto> content = IntStream.range(0, pageSize)
+                .mapToObj(JacksonBenchmark::user)
+                .toList();
+        page = new PageImpl<>(content, PageRequest.of(0, pageSize), 10_000);
+    }
+
+    @Benchmark
+    public byte[] serializeUserDto() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(userDto);
+    }
+
+    @Benchmark
+    public UserDto deserializeUserDto() throws JsonProcessingException {
+        return objectMapper.readValue(userJson, UserDto.class);
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    private static UserDto user(int index) {
+        return UserDto.builder()
+                .name("User " + index)
+                .email("user" + index + "@gmail.com")
+                .birthDate(LocalDate.parse("1993-11-02").plusDays(index))
+                .build();
+    }
+}
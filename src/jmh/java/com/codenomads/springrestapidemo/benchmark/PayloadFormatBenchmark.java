@@ -0,0 +1,84 @@
+package com.codenomads.springrestapidemo.benchmark;
+
+import com.codenomads.springrestapidemo.configuration.JacksonConfiguration;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares JSON with the binary formats offered through content negotiation. Payload sizes,
+ * raw and gzipped, are printed once per trial since JMH itself only measures time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadFormatBenchmark {
+
+    private static final TypeReference<List<UserDto>> USER_LIST = new TypeReference<>() {
+    };
+
+    @Param({"json", "cbor", "smile"})
+    private String format;
+
+    @Param({"50", "500"})
+    private int pageSize;
+
+    private ObjectMapper objectMapper;
+    private List<UserDto> users;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = switch (format) {
+            case "json" -> Jackson2ObjectMapperBuilder.json().build();
+            case "cbor" -> JacksonConfiguration.cborMapper();
+            case "smile" -> JacksonConfiguration.smileMapper();
+            default -> throw new IllegalArgumentException("Unknown format " + format);
+        };
+        users = IntStream.range(0, pageSize)
+                .mapToObj(PayloadFormatBenchmark::user)
+                .toList();
+        payload = objectMapper.writeValueAsBytes(users);
+        System.out.printf("%n%s, %d users: %d bytes, %d bytes gzipped%n",
+                format, pageSize, payload.length, gzip(payload).length);
+    }
+
+    @Benchmark
+    public byte[] serializeUsers() throws IOException {
+        return objectMapper.writeValueAsBytes(users);
+    }
+
+    @Benchmark
+    public List<UserDto> deserializeUsers() throws IOException {
+        return objectMapper.readValue(payload, USER_LIST);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static UserDto user(int index) {
+        return UserDto.builder()
+                .name("User " + index)
+                .email("user" + index + "@gmail.com")
+                .birthDate(LocalDate.parse("1993-11-02").plusDays(index))
+                .build();
+    }
+}
@@ -0,0 +1,43 @@
+package com.codenomads.springrestapidemo.benchmark;
+
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.dto.UserDtoMapper;
+import com.codenomads.springrestapidemo.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserDtoMapperBenchmark {
+
+    private final UserDtoMapper userDtoMapper = new UserDtoMapper();
+
+    private UserDto userDto;
+    private User user;
+
+    @Setup
+    public void setUp() {
+        userDto = UserDto.builder()
+                .name("Hans")
+                .email("hans@gmail.com")
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build();
+        user = userDtoMapper.toUser(userDto);
+    }
+
+    @Benchmark
+    public User toUser() {
+        return userDtoMapper.toUser(userDto);
+    }
+
+    @Benchmark
+    public UserDto toDto() {
+        return userDtoMapper.toDto(user);
+    }
+}
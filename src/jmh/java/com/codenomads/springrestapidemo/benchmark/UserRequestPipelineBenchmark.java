@@ -0,0 +1,81 @@
+package com.codenomads.springrestapidemo.benchmark;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * End-to-end MockMvc round trips through the full Spring context, backed by an in-memory H2
+ * database in PostgreSQL mode instead of a live Postgres.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserRequestPipelineBenchmark {
+
+    private static final int USER_COUNT = 1_000;
+
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(SpringRestApiDemoApplication.class)
+                .profiles("jmh")
+                .run();
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        userRepository.saveAll(IntStream.range(0, USER_COUNT)
+                .mapToObj(index -> User.builder()
+                        .name("User " + index)
+                        .email("user" + index + "@gmail.com")
+                        .birthDate(LocalDate.parse("1993-11-02").plusDays(index))
+                        .build())
+                .toList());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public MvcResult getUserByEmail() throws Exception {
+        return mockMvc.perform(get("/users/user42@gmail.com")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andReturn();
+    }
+
+    @Benchmark
+    public MvcResult getAllUsersByPage() throws Exception {
+        return mockMvc.perform(get("/users")
+                        .param("page", "3")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andReturn();
+    }
+
+    @Benchmark
+    public MvcResult getAllUsersByKeyset() throws Exception {
+        return mockMvc.perform(get("/users/keyset")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andReturn();
+    }
+}
@@ -0,0 +1,122 @@
+package com.codenomads.springrestapidemo.benchmark;
+
+import com.codenomads.springrestapidemo.controller.UserController;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.validation.EmailAddressValidator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.constraints.Email;
+import javax.validation.ValidatorFactory;
+import javax.validation.executable.ExecutableValidator;
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    private static final Pattern EMAIL_PATTERN = Pattern.compile(EmailAddressValidator.REGEXP);
+
+    @Param({"hans@gmail.com", "hans.maria-mueller@mail.example-domain.com", "not-an-email@"})
+    private String email;
+
+    private ValidatorFactory validatorFactory;
+    private Validator validator;
+    private ExecutableValidator executableValidator;
+    private UserController userController;
+    private Method getUserByEmail;
+    private Method deleteUser;
+    private UserDto userDto;
+    private User user;
+    private User validatedUser;
+    private EmailRegexpBean emailRegexpBean;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        validator = validatorFactory.getValidator();
+        executableValidator = validator.forExecutables();
+        userController = new UserController(null, null, null, null, null, null, null);
+        getUserByEmail = UserController.class.getMethod("getUserByEmail", String.class);
+        deleteUser = UserController.class.getMethod("deleteUser", String.class);
+        userDto = UserDto.builder()
+                .name("Hans")
+                .email(email)
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build();
+        user = User.builder()
+                .name("Hans")
+                .email(email)
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build();
+        validatedUser = User.builder()
+                .name("Hans")
+                .email(email)
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .validated(true)
+                .build();
+        emailRegexpBean = new EmailRegexpBean(email);
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public boolean emailRegex() {
+        return EMAIL_PATTERN.matcher(email).matches();
+    }
+
+    @Benchmark
+    public boolean emailScanner() {
+        return EmailAddressValidator.isEmailAddress(email);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<EmailRegexpBean>> validateEmailRegexpConstraint() {
+        return validator.validate(emailRegexpBean);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<UserDto>> validateUserDto() {
+        return validator.validate(userDto);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<User>> validateUser() {
+        return validator.validate(user);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<User>> validateValidatedUser() {
+        return validator.validate(validatedUser);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<UserController>> validateGetUserByEmailPathVariable() {
+        return executableValidator.validateParameters(userController, getUserByEmail, new Object[]{email});
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<UserController>> validateDeleteUserPathVariable() {
+        return executableValidator.validateParameters(userController, deleteUser, new Object[]{email});
+    }
+
+    /**
+     * The email constraint as it was declared before {@code @EmailAddress}.
+     */
+    public record EmailRegexpBean(@Email(regexp = EmailAddressValidator.REGEXP) String email) {
+    }
+}
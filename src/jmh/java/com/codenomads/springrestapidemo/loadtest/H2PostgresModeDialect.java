@@ -0,0 +1,15 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import org.hibernate.dialect.PostgreSQL10Dialect;
+
+/**
+ * The Postgres dialect for H2 in Postgres mode, which only accepts the standard form of the
+ * sequence options.
+ */
+public class H2PostgresModeDialect extends PostgreSQL10Dialect {
+
+    @Override
+    protected String getCreateSequenceString(String sequenceName, int initialValue, int incrementSize) {
+        return getCreateSequenceString(sequenceName) + " start with " + initialValue + " increment by " + incrementSize;
+    }
+}
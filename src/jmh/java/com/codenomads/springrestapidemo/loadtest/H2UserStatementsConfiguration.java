@@ -0,0 +1,53 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import com.codenomads.springrestapidemo.repository.UserStatements;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * H2, which load tests run against in its Postgres mode, supports neither
+ * {@code ON CONFLICT DO UPDATE} nor {@code RETURNING}, so equivalent statements reading from
+ * its data change delta tables are used instead.
+ */
+@Configuration
+@Profile(MixedWorkload.PROFILE)
+public class H2UserStatementsConfiguration {
+
+    @Bean
+    public UserStatements h2UserStatements() {
+        return new UserStatements(
+                """
+                SELECT * FROM FINAL TABLE (
+                    MERGE INTO users
+                    USING (VALUES (CAST(:id AS UUID), CAST(:name AS VARCHAR), CAST(:email AS VARCHAR),
+                                   CAST(:birthDate AS DATE), CAST(:lastModified AS TIMESTAMP)))
+                        AS excluded (id, name, email, birth_date, last_modified)
+                    ON users.email = excluded.email
+                    WHEN MATCHED THEN UPDATE
+                        SET name = excluded.name,
+                            birth_date = excluded.birth_date,
+                            version = users.version + 1,
+                            last_modified = excluded.last_modified
+                    WHEN NOT MATCHED THEN
+                        INSERT (id, name, email, birth_date, version, last_modified)
+                        VALUES (excluded.id, excluded.name, excluded.email, excluded.birth_date, 0, excluded.last_modified))""",
+                """
+                SELECT * FROM FINAL TABLE (
+                    UPDATE users
+                        SET name = :name,
+                            birth_date = :birthDate,
+                            version = version + 1,
+                            last_modified = :lastModified
+                    WHERE id = :id AND version = :version)""",
+                """
+                SELECT id FROM FINAL TABLE (
+                    INSERT INTO users (id, name, email, birth_date, version, last_modified)
+                    VALUES %s
+                    ON CONFLICT DO NOTHING)""",
+                """
+                SELECT email FROM OLD TABLE (
+                    DELETE FROM users
+                    WHERE email IN (:emails))""");
+    }
+}
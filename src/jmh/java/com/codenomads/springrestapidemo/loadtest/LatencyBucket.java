@@ -0,0 +1,8 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+/**
+ * The number of requests that took longer than the previous bucket's bound and at most
+ * {@code upToMillis}.
+ */
+public record LatencyBucket(double upToMillis, long count) {
+}
@@ -0,0 +1,126 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load generator: a fixed number of workers each send a request, wait for the
+ * response and immediately send the next one. Latencies are recorded per operation after the
+ * warm-up period has passed.
+ */
+public class LoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final long FIRST_BUCKET_MICROS = 100;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    public List<OperationReport> run(List<Operation> operations, int concurrency, Duration warmUp, Duration duration)
+            throws InterruptedException {
+        int totalWeight = operations.stream().mapToInt(Operation::weight).sum();
+        List<Histogram> histograms = new ArrayList<>();
+        List<LongAdder> errors = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            histograms.add(new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+            errors.add(new LongAdder());
+        }
+
+        long measureFrom = System.nanoTime() + warmUp.toNanos();
+        long measureUntil = measureFrom + duration.toNanos();
+
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int worker = 0; worker < concurrency; worker++) {
+                long seed = worker;
+                workers.submit(() -> {
+                    Random random = new Random(seed);
+                    long now;
+                    while ((now = System.nanoTime()) < measureUntil) {
+                        int index = pick(operations, totalWeight, random);
+                        boolean failed = !send(operations.get(index), random);
+                        long end = System.nanoTime();
+                        if (now >= measureFrom) {
+                            histograms.get(index).recordValue(
+                                    Math.min(TimeUnit.NANOSECONDS.toMicros(end - now), HIGHEST_TRACKABLE_MICROS));
+                            if (failed) {
+                                errors.get(index).increment();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        double seconds = duration.toMillis() / 1000.0;
+        List<OperationReport> reports = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            Histogram histogram = histograms.get(i);
+            reports.add(new OperationReport(
+                    operations.get(i).name(),
+                    histogram.getTotalCount(),
+                    errors.get(i).sum(),
+                    histogram.getTotalCount() / seconds,
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()),
+                    buckets(histogram)));
+        }
+        return reports;
+    }
+
+    private boolean send(Operation operation, Random random) {
+        try {
+            HttpResponse<Void> response = httpClient.send(
+                    operation.request().apply(random), HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() < 500 && response.statusCode() != 429;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static int pick(List<Operation> operations, int totalWeight, Random random) {
+        int ticket = random.nextInt(totalWeight);
+        for (int i = 0; i < operations.size(); i++) {
+            ticket -= operations.get(i).weight();
+            if (ticket < 0) {
+                return i;
+            }
+        }
+        return operations.size() - 1;
+    }
+
+    /**
+     * Buckets doubling in width from 0.1 ms up to the slowest request.
+     */
+    private static List<LatencyBucket> buckets(Histogram histogram) {
+        List<LatencyBucket> buckets = new ArrayList<>();
+        for (HistogramIterationValue value : histogram.logarithmicBucketValues(FIRST_BUCKET_MICROS, 2)) {
+            buckets.add(new LatencyBucket(millis(value.getValueIteratedTo()), value.getCountAddedInThisIterationStep()));
+        }
+        return buckets;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,37 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, read from {@code --load.<name>=<value>} program arguments. All
+ * other arguments are passed on to the application under test.
+ */
+public record LoadTestSettings(int users, int concurrency, Duration warmUp, Duration duration, Path output) {
+
+    private static final String PREFIX = "--load.";
+
+    public static LoadTestSettings fromArgs(String[] args, String defaultOutput) {
+        return fromArgs(args, defaultOutput, 10_000);
+    }
+
+    public static LoadTestSettings fromArgs(String[] args, String defaultOutput, int defaultUsers) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith(PREFIX) && arg.contains("=")) {
+                int separator = arg.indexOf('=');
+                values.put(arg.substring(PREFIX.length(), separator), arg.substring(separator + 1));
+            }
+        }
+        return new LoadTestSettings(
+                Integer.parseInt(values.getOrDefault("users", Integer.toString(defaultUsers))),
+                Integer.parseInt(values.getOrDefault("concurrency", "400")),
+                DurationStyle.detectAndParse(values.getOrDefault("warm-up", "10s")),
+                DurationStyle.detectAndParse(values.getOrDefault("duration", "30s")),
+                Path.of(values.getOrDefault("output", defaultOutput)));
+    }
+}
@@ -0,0 +1,147 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.cache.UserEmailFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives a mixed workload of lookups by email, paged listings, upserts and deletes against the
+ * application running on an embedded H2 database in Postgres mode, so that it can be repeated
+ * on any machine without a database server. The {@code loadtest} profile configures the
+ * database and turns off rate limiting, which would otherwise reject most of the load.
+ * <p>
+ * The users are seeded by one set-based insert per chunk that generates the rows inside the
+ * database, without a round trip or an entity per user. Upserts and deletes pick from the same seeded emails, so deleted
+ * users are recreated by later upserts and the table stays about the seeded size.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec@load-test
+ * -Dload-test.main=com.codenomads.springrestapidemo.loadtest.MixedWorkload}, passing settings such as
+ * {@code -Dload-test.args="--load.users=1000000 --load.concurrency=200 --load.duration=60s"}; see
+ * {@link LoadTestSettings}. Ten million users need a few gigabytes of heap; alternatively pass
+ * an H2 file URL such as {@code --spring.datasource.url=jdbc:h2:file:./target/load-test/users;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH}.
+ */
+public class MixedWorkload {
+
+    static final String PROFILE = "loadtest";
+    private static final String DEFAULT_OUTPUT = "target/load-test/mixed-workload.json";
+    private static final int DEFAULT_USERS = 100_000;
+    private static final int SEED_CHUNK_SIZE = 100_000;
+    private static final int PAGE_SIZE = 50;
+    private static final int LISTED_PAGES = 100;
+
+    private static final String SEED_USERS = """
+            INSERT INTO users (id, name, email, birth_date, version, last_modified)
+            SELECT RANDOM_UUID(), 'User ' || n, 'user' || n || '@gmail.com',
+                   DATEADD(DAY, MOD(n, 20000), DATE '1960-01-01'), 0, CURRENT_TIMESTAMP
+            FROM SYSTEM_RANGE(?, ?) AS r (n)""";
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromArgs(args, DEFAULT_OUTPUT, DEFAULT_USERS);
+        Map<String, Object> results = new LinkedHashMap<>();
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(SpringRestApiDemoApplication.class)
+                .profiles(PROFILE)
+                .run(withOverrides(args, settings))) {
+            long start = System.nanoTime();
+            seed(context.getBean(JdbcTemplate.class), settings.users());
+            context.getBeanProvider(UserEmailFilter.class).ifAvailable(UserEmailFilter::rebuild);
+            double seedSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Seeded %d users in %.1f s%n", settings.users(), seedSeconds);
+
+            URI baseUri = URI.create("http://localhost:%d/".formatted(
+                    ((WebServerApplicationContext) context).getWebServer().getPort()));
+            List<OperationReport> reports = new LoadGenerator().run(
+                    operations(baseUri, settings.users()),
+                    settings.concurrency(),
+                    settings.warmUp(),
+                    settings.duration());
+
+            results.put("settings", Map.of(
+                    "users", settings.users(),
+                    "concurrency", settings.concurrency(),
+                    "warmUp", settings.warmUp().toString(),
+                    "duration", settings.duration().toString()));
+            results.put("seedSeconds", seedSeconds);
+            results.put("throughputPerSecond", reports.stream().mapToDouble(OperationReport::throughputPerSecond).sum());
+            results.put("operations", reports);
+            print(reports);
+        }
+
+        write(settings, results);
+    }
+
+    /**
+     * Sizes the email filter for the seeded users unless set explicitly.
+     */
+    private static String[] withOverrides(String[] args, LoadTestSettings settings) {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        arguments.add("--server.port=0");
+        if (arguments.stream().noneMatch(arg -> arg.startsWith("--users.email-filter.expected-emails="))) {
+            arguments.add("--users.email-filter.expected-emails=" + Math.max(settings.users(), 1));
+        }
+        return arguments.toArray(String[]::new);
+    }
+
+    private static void seed(JdbcTemplate jdbcTemplate, int users) {
+        for (long from = 0; from < users; from += SEED_CHUNK_SIZE) {
+            jdbcTemplate.update(SEED_USERS, from, Math.min(from + SEED_CHUNK_SIZE, users) - 1);
+        }
+    }
+
+    private static List<Operation> operations(URI baseUri, int users) {
+        return List.of(
+                new Operation("GET /users/{email}", 70, random -> HttpRequest.newBuilder()
+                        .uri(baseUri.resolve("users/" + email(random.nextInt(users))))
+                        .GET()
+                        .build()),
+                new Operation("GET /users", 10, random -> HttpRequest.newBuilder()
+                        .uri(baseUri.resolve("users?page=%d&size=%d".formatted(
+                                random.nextInt(Math.max(Math.min(users / PAGE_SIZE, LISTED_PAGES), 1)), PAGE_SIZE)))
+                        .GET()
+                        .build()),
+                new Operation("PUT /users", 15, random -> HttpRequest.newBuilder()
+                        .uri(baseUri.resolve("users"))
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(
+                                "{\"name\":\"User %d\",\"email\":\"%s\",\"birthDate\":\"1993-11-02\"}"
+                                        .formatted(random.nextInt(1_000), email(random.nextInt(users)))))
+                        .build()),
+                new Operation("DELETE /users/{email}", 5, random -> HttpRequest.newBuilder()
+                        .uri(baseUri.resolve("users/" + email(random.nextInt(users))))
+                        .DELETE()
+                        .build()));
+    }
+
+    private static String email(int index) {
+        return "user" + index + "@gmail.com";
+    }
+
+    private static void print(List<OperationReport> reports) {
+        System.out.println();
+        System.out.println(OperationReport.tableHeader());
+        reports.forEach(report -> System.out.println(report.toTableRow()));
+    }
+
+    private static void write(LoadTestSettings settings, Object results) throws IOException {
+        Files.createDirectories(settings.output().toAbsolutePath().getParent());
+        new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(settings.output().toFile(), results);
+        System.out.println();
+        System.out.println("Results written to " + settings.output().toAbsolutePath());
+    }
+}
@@ -0,0 +1,11 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import java.net.http.HttpRequest;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * One kind of request in a workload. Operations are picked in proportion to their weight.
+ */
+public record Operation(String name, int weight, Function<Random, HttpRequest> request) {
+}
@@ -0,0 +1,25 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import java.util.List;
+
+public record OperationReport(String operation,
+                              long requests,
+                              long errors,
+                              double throughputPerSecond,
+                              double p50Millis,
+                              double p90Millis,
+                              double p99Millis,
+                              double p999Millis,
+                              double maxMillis,
+                              List<LatencyBucket> histogram) {
+
+    public String toTableRow() {
+        return "%-24s %10d %8d %12.1f %10.2f %10.2f %10.2f %10.2f".formatted(
+                operation, requests, errors, throughputPerSecond, p50Millis, p90Millis, p99Millis, maxMillis);
+    }
+
+    public static String tableHeader() {
+        return "%-24s %10s %8s %12s %10s %10s %10s %10s".formatted(
+                "operation", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+    }
+}
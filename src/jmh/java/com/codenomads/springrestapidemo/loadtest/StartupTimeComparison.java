@@ -0,0 +1,234 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.configuration.StartupConfiguration;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time from launching a fresh JVM until the first successful
+ * {@code GET /users/{email}}, which is what an instance added by the autoscaler has to wait for.
+ * Compared are the default startup, the {@code production} profile and the {@code production}
+ * profile with an AppCDS archive recorded by a training run of that profile.
+ * <p>
+ * Every measurement starts a new JVM on the application classes and their dependencies, which
+ * are packaged as jars first since class data sharing does not accept class directories. The
+ * probe upserts the user it reads, so the measured time includes that one {@code PUT}.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec@load-test
+ * -Dload-test.main=com.codenomads.springrestapidemo.loadtest.StartupTimeComparison}, optionally
+ * passing {@code --startup.runs=<n>} and {@code --startup.output=<file>}. All other arguments are
+ * passed on to the application.
+ */
+public class StartupTimeComparison {
+
+    private static final String PREFIX = "--startup.";
+    private static final String DEFAULT_OUTPUT = "target/load-test/startup-time-comparison.json";
+    private static final Path WORK_DIRECTORY = Path.of("target/load-test/startup");
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(3);
+    private static final Duration PROBE_INTERVAL = Duration.ofMillis(10);
+    private static final String EMAIL = "startup@gmail.com";
+
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(PREFIX) && arg.contains("=")) {
+                int separator = arg.indexOf('=');
+                settings.put(arg.substring(PREFIX.length(), separator), arg.substring(separator + 1));
+            } else {
+                applicationArgs.add(arg);
+            }
+        }
+        int runs = Integer.parseInt(settings.getOrDefault("runs", "5"));
+        Path output = Path.of(settings.getOrDefault("output", DEFAULT_OUTPUT));
+
+        Files.createDirectories(WORK_DIRECTORY);
+        String classPath = jarClassPath();
+        Path archive = WORK_DIRECTORY.resolve("production.jsa");
+        List<String> production = List.of("--spring.profiles.active=" + StartupConfiguration.PRODUCTION_PROFILE);
+
+        Files.deleteIfExists(archive);
+        launch("training", classPath, List.of("-XX:ArchiveClassesAtExit=" + archive), production, applicationArgs);
+
+        Map<String, List<Double>> results = new LinkedHashMap<>();
+        for (int run = 0; run < runs; run++) {
+            record("default", results,
+                    launch("default", classPath, List.of(), List.of(), applicationArgs));
+            record(StartupConfiguration.PRODUCTION_PROFILE, results,
+                    launch("production", classPath, List.of(), production, applicationArgs));
+            record("production-appcds", results,
+                    launch("production-appcds", classPath, List.of("-XX:SharedArchiveFile=" + archive),
+                            production, applicationArgs));
+        }
+
+        print(results);
+        write(output, results);
+    }
+
+    private static void record(String mode, Map<String, List<Double>> results, double millis) {
+        results.computeIfAbsent(mode, key -> new ArrayList<>()).add(millis);
+        System.out.printf("%-20s %10.0f ms%n", mode, millis);
+    }
+
+    /**
+     * Starts the application and returns the milliseconds until {@code GET /users/{email}}
+     * first succeeded. The JVM is stopped gracefully afterwards, which is when a training run
+     * writes its class data sharing archive.
+     */
+    private static double launch(String mode,
+                                 String classPath,
+                                 List<String> jvmOptions,
+                                 List<String> profileArgs,
+                                 List<String> applicationArgs) throws IOException, InterruptedException {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.addAll(List.of("-classpath", classPath, SpringRestApiDemoApplication.class.getName()));
+        command.add("--server.port=" + port);
+        command.addAll(profileArgs);
+        command.addAll(applicationArgs);
+
+        File log = WORK_DIRECTORY.resolve(mode + ".log").toFile();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        try {
+            awaitFirstGet(process, URI.create("http://localhost:%d/".formatted(port)), log);
+            return (System.nanoTime() - start) / 1_000_000.0;
+        } finally {
+            process.destroy();
+            if (!process.waitFor(STARTUP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static void awaitFirstGet(Process process, URI baseUri, File log) throws InterruptedException {
+        HttpRequest put = HttpRequest.newBuilder(baseUri.resolve("users"))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(
+                        "{\"name\":\"Startup\",\"email\":\"%s\",\"birthDate\":\"1993-11-02\"}".formatted(EMAIL)))
+                .build();
+        HttpRequest get = HttpRequest.newBuilder(baseUri.resolve("users/" + EMAIL))
+                .GET()
+                .build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        boolean upserted = false;
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited during startup, see " + log);
+            }
+            if (!upserted) {
+                upserted = send(put) == 200;
+            }
+            if (upserted && send(get) == 200) {
+                return;
+            }
+            Thread.sleep(PROBE_INTERVAL.toMillis());
+        }
+        throw new IllegalStateException("Application did not answer within %s, see %s".formatted(STARTUP_TIMEOUT, log));
+    }
+
+    private static int send(HttpRequest request) throws InterruptedException {
+        try {
+            return HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The class path of the application without this module's test classes, with the
+     * application classes packaged as a jar.
+     */
+    private static String jarClassPath() throws IOException, URISyntaxException {
+        Path classes = Path.of(SpringRestApiDemoApplication.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+        Path applicationJar = WORK_DIRECTORY.resolve("application.jar").toAbsolutePath();
+        jar(classes, applicationJar);
+
+        List<String> entries = new ArrayList<>();
+        entries.add(applicationJar.toString());
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (entry.endsWith(".jar")) {
+                entries.add(entry);
+            }
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    /**
+     * Directories get entries of their own, without them classpath scanning finds no components
+     * in the jar.
+     */
+    private static void jar(Path directory, Path jar) throws IOException {
+        try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar));
+             Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.filter(path -> !path.equals(directory)).toList()) {
+                String name = directory.relativize(path).toString().replace(File.separatorChar, '/');
+                if (Files.isDirectory(path)) {
+                    output.putNextEntry(new JarEntry(name + "/"));
+                } else {
+                    output.putNextEntry(new JarEntry(name));
+                    Files.copy(path, output);
+                }
+                output.closeEntry();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void print(Map<String, List<Double>> results) {
+        System.out.println();
+        System.out.println("%-20s %10s %10s %10s".formatted("mode", "min ms", "median ms", "max ms"));
+        results.forEach((mode, millis) -> {
+            List<Double> sorted = millis.stream().sorted().toList();
+            System.out.println("%-20s %10.0f %10.0f %10.0f".formatted(
+                    mode, sorted.get(0), sorted.get(sorted.size() / 2), sorted.get(sorted.size() - 1)));
+        });
+    }
+
+    private static void write(Path output, Object results) throws IOException {
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(output.toFile(), results);
+        System.out.println();
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+}
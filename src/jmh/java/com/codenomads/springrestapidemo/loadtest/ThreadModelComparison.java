@@ -0,0 +1,126 @@
+package com.codenomads.springrestapidemo.loadtest;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.configuration.VirtualThreadConfiguration;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Compares throughput and latency of {@code GET /users/{email}} and {@code PUT /users} with
+ * Tomcat on platform threads and on virtual threads. Both runs use the datasource configured for
+ * the application, with the lookup cache disabled so that every read blocks on the database.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec@load-test}, passing settings such as
+ * {@code -Dload-test.args="--load.concurrency=400 --load.duration=30s"}; see {@link LoadTestSettings}.
+ */
+public class ThreadModelComparison {
+
+    private static final String DEFAULT_OUTPUT = "target/load-test/thread-model-comparison.json";
+    private static final int SEED_CHUNK_SIZE = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromArgs(args, DEFAULT_OUTPUT);
+        Map<String, Map<String, List<OperationReport>>> results = new LinkedHashMap<>();
+
+        for (String threadModel : List.of("platform", VirtualThreadConfiguration.PROFILE)) {
+            SpringApplicationBuilder application = new SpringApplicationBuilder(SpringRestApiDemoApplication.class);
+            if (!threadModel.equals("platform")) {
+                application.profiles(threadModel);
+            }
+            try (ConfigurableApplicationContext context = application.run(withOverrides(args))) {
+                seed(context.getBean(UserRepository.class), settings.users());
+                URI baseUri = URI.create("http://localhost:%d/".formatted(
+                        ((WebServerApplicationContext) context).getWebServer().getPort()));
+
+                Map<String, List<OperationReport>> scenarios = new LinkedHashMap<>();
+                scenarios.put("get-by-email", run(settings, getUserByEmail(baseUri, settings.users())));
+                scenarios.put("put", run(settings, putUser(baseUri, settings.users())));
+                results.put(threadModel, scenarios);
+            }
+        }
+
+        print(results);
+        write(settings, results);
+    }
+
+    private static String[] withOverrides(String[] args) {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        arguments.add("--server.port=0");
+        arguments.add("--users.cache.maximum-size=0");
+        arguments.add("--users.rate-limit.enabled=false");
+        return arguments.toArray(String[]::new);
+    }
+
+    private static List<OperationReport> run(LoadTestSettings settings, Operation operation) throws InterruptedException {
+        return new LoadGenerator().run(List.of(operation), settings.concurrency(), settings.warmUp(), settings.duration());
+    }
+
+    private static Operation getUserByEmail(URI baseUri, int users) {
+        return new Operation("GET /users/{email}", 1, random -> HttpRequest.newBuilder()
+                .uri(baseUri.resolve("users/" + email(random.nextInt(users))))
+                .GET()
+                .build());
+    }
+
+    private static Operation putUser(URI baseUri, int users) {
+        return new Operation("PUT /users", 1, random -> HttpRequest.newBuilder()
+                .uri(baseUri.resolve("users"))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(
+                        "{\"name\":\"User %d\",\"email\":\"%s\",\"birthDate\":\"1993-11-02\"}"
+                                .formatted(random.nextInt(1_000), email(random.nextInt(users)))))
+                .build());
+    }
+
+    private static void seed(UserRepository userRepository, int users) {
+        for (int from = 0; from < users; from += SEED_CHUNK_SIZE) {
+            userRepository.saveAll(IntStream.range(from, Math.min(from + SEED_CHUNK_SIZE, users))
+                    .mapToObj(index -> User.builder()
+                            .name("User " + index)
+                            .email(email(index))
+                            .birthDate(LocalDate.parse("1993-11-02"))
+                            .build())
+                    .toList());
+        }
+    }
+
+    private static String email(int index) {
+        return "user" + index + "@gmail.com";
+    }
+
+    private static void print(Map<String, Map<String, List<OperationReport>>> results) {
+        results.forEach((threadModel, scenarios) -> {
+            System.out.println();
+            System.out.println("Thread model: " + threadModel);
+            System.out.println(OperationReport.tableHeader());
+            scenarios.values().stream()
+                    .flatMap(List::stream)
+                    .forEach(report -> System.out.println(report.toTableRow()));
+        });
+    }
+
+    private static void write(LoadTestSettings settings, Object results) throws IOException {
+        Files.createDirectories(settings.output().toAbsolutePath().getParent());
+        new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(settings.output().toFile(), results);
+        System.out.println();
+        System.out.println("Results written to " + settings.output().toAbsolutePath());
+    }
+}
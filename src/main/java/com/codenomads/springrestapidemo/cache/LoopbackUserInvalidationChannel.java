@@ -0,0 +1,35 @@
+package com.codenomads.springrestapidemo.cache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stays within this JVM, where there is no other instance to deliver published invalidations
+ * to. Enough for a single instance, and for tests standing in for other instances by
+ * receiving invalidations as if they had been published elsewhere.
+ */
+public class LoopbackUserInvalidationChannel implements UserInvalidationChannel {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(Collection<UserInvalidation> invalidations) {
+        // This instance has evicted its own caches already.
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Delivers invalidations to the listeners right away, as if another instance had published
+     * them.
+     */
+    public void receive(Collection<UserInvalidation> invalidations) {
+        for (Listener listener : listeners) {
+            invalidations.forEach(listener::invalidate);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.codenomads.springrestapidemo.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Broadcasts invalidations through Postgres {@code NOTIFY}, which every instance receives
+ * with {@code LISTEN} on a connection of its own outside the pool. Notifications sent within
+ * a transaction are only delivered once it commits, and dropped if it rolls back. After
+ * connecting, and again after every reconnect, listeners are told to invalidate everything,
+ * as notifications sent in between are lost. Every payload starts with the id of the channel
+ * that sent it, and notifications sent by this channel are not delivered to its listeners.
+ */
+@Slf4j
+public class PostgresUserInvalidationChannel implements UserInvalidationChannel, SmartLifecycle {
+
+    private static final String CHANNEL = "user_invalidations";
+    private static final String NOTIFY = "SELECT pg_notify(?, ?)";
+    // Postgres limits a payload to 8000 bytes, emails and ids are plain ASCII.
+    private static final int MAXIMUM_PAYLOAD_LENGTH = 7_900;
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+    private static final char SEPARATOR = ' ';
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSourceProperties dataSourceProperties;
+    private final Duration reconnectInterval;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final String origin = UUID.randomUUID().toString();
+
+    private volatile boolean running;
+    private Thread listener;
+
+    public PostgresUserInvalidationChannel(JdbcTemplate jdbcTemplate,
+                                           DataSourceProperties dataSourceProperties,
+                                           Duration reconnectInterval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSourceProperties = dataSourceProperties;
+        this.reconnectInterval = reconnectInterval;
+    }
+
+    @Override
+    public void publish(Collection<UserInvalidation> invalidations) {
+        StringBuilder payload = new StringBuilder(origin);
+        for (UserInvalidation invalidation : invalidations) {
+            String line = (invalidation.id() == null ? "-" : invalidation.id().toString()) + SEPARATOR + invalidation.email();
+            if (payload.length() > origin.length() && payload.length() + 1 + line.length() > MAXIMUM_PAYLOAD_LENGTH) {
+                notify(payload.toString());
+                payload.setLength(origin.length());
+            }
+            payload.append('\n').append(line);
+        }
+        if (payload.length() > origin.length()) {
+            notify(payload.toString());
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        listener = Thread.ofPlatform()
+                .name("users-invalidation-listener")
+                .start(this::listenLoop);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void notify(String payload) {
+        jdbcTemplate.query(NOTIFY, resultSet -> {
+        }, CHANNEL, payload);
+    }
+
+    private void listenLoop() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(
+                    dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(),
+                    dataSourceProperties.determinePassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                listeners.forEach(Listener::invalidateAll);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications((int) POLL_TIMEOUT.toMillis());
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            deliver(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Lost the user invalidation channel, reconnecting in {}.", reconnectInterval, e);
+                try {
+                    Thread.sleep(reconnectInterval.toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void deliver(String payload) {
+        String[] lines = payload.split("\n");
+        if (lines[0].equals(origin)) {
+            return;
+        }
+        for (String line : Arrays.asList(lines).subList(1, lines.length)) {
+            int separator = line.indexOf(SEPARATOR);
+            String id = line.substring(0, separator);
+            UserInvalidation invalidation = new UserInvalidation(
+                    line.substring(separator + 1), id.equals("-") ? null : UUID.fromString(id));
+            listeners.forEach(listener -> listener.invalidate(invalidation));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.codenomads.springrestapidemo.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent calls for the same key share one execution and its result or exception.
+ * Only the map bin of a key is locked while a call joins or starts, so unrelated keys do not
+ * contend. A caller waits for a running call at most the given time and then makes the call
+ * itself, so one stuck call cannot hold up everyone asking for the same key.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final long maximumWaitNanos;
+    private final Counter shared;
+    private final Counter timedOut;
+
+    public SingleFlight(String name, Duration maximumWait, MeterRegistry meterRegistry) {
+        this.maximumWaitNanos = maximumWait.toNanos();
+        this.shared = meterRegistry.counter("users.single-flight.shared", "name", name);
+        this.timedOut = meterRegistry.counter("users.single-flight.timed-out", "name", name);
+        meterRegistry.gauge("users.single-flight.running", List.of(Tag.of("name", name)), calls, Map::size);
+    }
+
+    public V execute(K key, Supplier<V> call) {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> running = calls.putIfAbsent(key, own);
+        if (running == null) {
+            try {
+                V value = call.get();
+                own.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                own.completeExceptionally(e);
+                throw e;
+            } finally {
+                calls.remove(key, own);
+            }
+        }
+        shared.increment();
+        try {
+            return running.get(maximumWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            return call.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a call in flight.", e);
+        }
+    }
+
+    /**
+     * Lets later callers start a new call instead of joining the running one, for example
+     * because it may have read state that has changed since.
+     */
+    public void forget(K key) {
+        calls.remove(key);
+    }
+
+    public void forgetAll() {
+        calls.clear();
+    }
+}
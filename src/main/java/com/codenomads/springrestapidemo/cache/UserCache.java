@@ -0,0 +1,240 @@
+package com.codenomads.springrestapidemo.cache;
+
+import com.codenomads.springrestapidemo.configuration.UserCacheProperties;
+import com.codenomads.springrestapidemo.dto.VersionedUserDto;
+import com.codenomads.springrestapidemo.model.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache of users keyed by email. Lookups that found no user are
+ * cached as well, but only for the shorter negative TTL. Concurrent misses for the same
+ * email share a single lookup.
+ * <p>
+ * A lookup may read a row that is being changed and only store its result after the change
+ * has been invalidated. Every invalidation therefore bumps a generation, striped by email,
+ * and a lookup only stores its result if the generation of its email is still the one it
+ * started with. The check and the store are a single atomic step of the cache.
+ * <p>
+ * Hibernate keeps its second-level cache up to date for changes made through entities, and
+ * evicting it would drop the soft locks that keep concurrent loads from putting back what they
+ * read before the commit. Locally, only users written by native statements are evicted from
+ * it, once the transaction has completed.
+ * <p>
+ * Invalidations are published on the {@link UserInvalidationChannel}, so that the other
+ * instances evict their caches too, their second-level cache included. The invalidations
+ * received from there reach the {@link UserEmailFilter} before this cache, so that a lookup
+ * that sees the new generation cannot be short-circuited by the filter and store a miss for a
+ * user written by another instance.
+ */
+@Component
+@EnableConfigurationProperties(UserCacheProperties.class)
+public class UserCache {
+
+    public static final String CACHE_NAME = "users";
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Cache<String, Optional<VersionedUserDto>> cache;
+    private final SingleFlight<String, Optional<VersionedUserDto>> lookups;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final UserSecondLevelCache secondLevelCache;
+    private final UserEmailFilter emailFilter;
+    private final UserInvalidationChannel invalidationChannel;
+
+    public UserCache(UserCacheProperties properties,
+                     UserSecondLevelCache secondLevelCache,
+                     UserEmailFilter emailFilter,
+                     UserInvalidationChannel invalidationChannel,
+                     MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfter(new UserExpiry(properties.getTtl().toNanos(), properties.getNegativeTtl().toNanos()))
+                .recordStats()
+                .build();
+        this.lookups = new SingleFlight<>(CACHE_NAME, properties.getMaximumCoalescingWait(), meterRegistry);
+        this.secondLevelCache = secondLevelCache;
+        this.emailFilter = emailFilter;
+        this.invalidationChannel = invalidationChannel;
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        invalidationChannel.subscribe(new ReceivedInvalidations());
+    }
+
+    public Optional<VersionedUserDto> get(String email, Function<String, Optional<VersionedUserDto>> loader) {
+        String key = normalize(email);
+        Optional<VersionedUserDto> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        int stripe = stripe(key);
+        long generation = generations.get(stripe);
+        Optional<VersionedUserDto> loaded = lookups.execute(key, () -> loader.apply(email));
+        cache.asMap().compute(key, (ignored, current) -> generations.get(stripe) == generation ? loaded : current);
+        return loaded;
+    }
+
+    /**
+     * Evicts the entry of a user written through its entity once the surrounding transaction
+     * has completed, and keeps lookups that started before from storing what they read.
+     * Without an active transaction the entry is evicted right away. Readers coming after the
+     * eviction do not join a lookup that started before it.
+     * <p>
+     * The invalidations of a transaction are published together just before it commits.
+     */
+    public void invalidateAfterCompletion(String email) {
+        invalidateAfterCompletion(new UserInvalidation(email, null), false);
+    }
+
+    /**
+     * Like {@link #invalidateAfterCompletion(String)}, for users that existed before and were
+     * updated, so that the other instances evict their entity by id as well.
+     */
+    public void invalidateAfterCompletion(User user) {
+        invalidateAfterCompletion(new UserInvalidation(user.getEmail(), user.getId()), false);
+    }
+
+    /**
+     * Like {@link #invalidateAfterCompletion(String)}, for users created or deleted by native
+     * statements, which are evicted from the second-level cache as well.
+     */
+    public void invalidateNativeWriteAfterCompletion(String email) {
+        invalidateAfterCompletion(new UserInvalidation(email, null), true);
+    }
+
+    /**
+     * Like {@link #invalidateNativeWriteAfterCompletion(String)}, for users that may have existed
+     * before, so that their entity is evicted by id as well.
+     */
+    public void invalidateNativeWriteAfterCompletion(User user) {
+        invalidateAfterCompletion(new UserInvalidation(user.getEmail(), user.getId()), true);
+    }
+
+    private void invalidateAfterCompletion(UserInvalidation invalidation, boolean nativeWrite) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(invalidation, nativeWrite);
+            invalidationChannel.publish(Set.of(invalidation));
+            return;
+        }
+        PendingInvalidations pending = pendingInvalidations();
+        pending.invalidations.add(invalidation);
+        if (nativeWrite) {
+            pending.nativeWrites.add(invalidation);
+        }
+    }
+
+    private PendingInvalidations pendingInvalidations() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof PendingInvalidations pending && pending.owner() == this) {
+                return pending;
+            }
+        }
+        PendingInvalidations pending = new PendingInvalidations();
+        TransactionSynchronizationManager.registerSynchronization(pending);
+        return pending;
+    }
+
+    /**
+     * Evicts a user changed elsewhere, from the second-level cache as well.
+     */
+    public void invalidate(UserInvalidation invalidation) {
+        evict(invalidation, true);
+    }
+
+    public void invalidateAll() {
+        lookups.forgetAll();
+        for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+            generations.incrementAndGet(stripe);
+        }
+        cache.invalidateAll();
+        secondLevelCache.evictAll();
+    }
+
+    private void evict(UserInvalidation invalidation, boolean fromSecondLevelCache) {
+        String key = normalize(invalidation.email());
+        // Forgotten first: a reader that sees the new generation must not join the old lookup.
+        lookups.forget(key);
+        generations.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+        if (fromSecondLevelCache) {
+            secondLevelCache.evict(invalidation);
+        }
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /*
+     * Emails are only stripped, not case-folded: the repository lookup matches exactly,
+     * and folding here would let a miss for one spelling shadow a hit for another.
+     */
+    private static String normalize(String email) {
+        return email.strip();
+    }
+
+    private final class ReceivedInvalidations implements UserInvalidationChannel.Listener {
+
+        @Override
+        public void invalidate(UserInvalidation invalidation) {
+            emailFilter.invalidate(invalidation);
+            UserCache.this.invalidate(invalidation);
+        }
+
+        @Override
+        public void invalidateAll() {
+            emailFilter.invalidateAll();
+            UserCache.this.invalidateAll();
+        }
+    }
+
+    private final class PendingInvalidations implements TransactionSynchronization {
+
+        private final Set<UserInvalidation> invalidations = new LinkedHashSet<>();
+        private final Set<UserInvalidation> nativeWrites = new LinkedHashSet<>();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            invalidationChannel.publish(invalidations);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            invalidations.forEach(invalidation -> evict(invalidation, nativeWrites.contains(invalidation)));
+        }
+
+        private UserCache owner() {
+            return UserCache.this;
+        }
+    }
+
+    private record UserExpiry(long ttlNanos, long negativeTtlNanos) implements Expiry<String, Optional<VersionedUserDto>> {
+
+        @Override
+        public long expireAfterCreate(String key, Optional<VersionedUserDto> value, long currentTime) {
+            return value.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Optional<VersionedUserDto> value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Optional<VersionedUserDto> value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
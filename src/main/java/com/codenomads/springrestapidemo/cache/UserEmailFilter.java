@@ -0,0 +1,165 @@
+package com.codenomads.springrestapidemo.cache;
+
+import com.codenomads.springrestapidemo.configuration.UserEmailFilterProperties;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Probabilistic set of all stored emails, used to answer lookups for emails that certainly
+ * do not exist without a database round trip. Deleted emails stay in the filter until the
+ * next periodic rebuild, which only costs false positives.
+ * <p>
+ * Emails are added before they are written and once more after the transaction commits,
+ * so a rebuild that scanned the table before the commit cannot lose them. Emails written by
+ * other instances arrive through the {@link UserInvalidationChannel}, handed on by
+ * {@link UserCache}. If it may have missed some, the filter stops answering until it has been
+ * rebuilt.
+ */
+@Component
+@EnableScheduling
+@EnableConfigurationProperties(UserEmailFilterProperties.class)
+public class UserEmailFilter {
+
+    private static final String METRIC_PREFIX = "users.email.filter";
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate scanTransactionTemplate;
+    private final UserEmailFilterProperties properties;
+    private final Counter shortCircuits;
+    private final Counter falsePositives;
+    private final AtomicLong resets = new AtomicLong();
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter next;
+
+    public UserEmailFilter(UserRepository userRepository,
+                           PlatformTransactionManager transactionManager,
+                           UserEmailFilterProperties properties,
+                           MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        // Deliberately not read-only: with replicas configured, a lagging replica could
+        // miss emails committed just before the scan, and the filter must never do that.
+        this.scanTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = properties;
+        this.shortCircuits = meterRegistry.counter(METRIC_PREFIX + ".short.circuits");
+        this.falsePositives = meterRegistry.counter(METRIC_PREFIX + ".false.positives");
+        Gauge.builder(METRIC_PREFIX + ".size", this, filter -> filter.current == null ? 0 : filter.current.sizeInBytes())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".expected.false.positive.rate",
+                        this, filter -> filter.current == null ? 1 : filter.current.expectedFalsePositiveRate())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns true only if the email has never been added. Before the first build, or when
+     * the filter is disabled, every email might exist.
+     */
+    public boolean isDefinitelyAbsent(String email) {
+        BloomFilter filter = current;
+        if (filter == null || filter.mightContain(email)) {
+            return false;
+        }
+        shortCircuits.increment();
+        return true;
+    }
+
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    public void add(String email) {
+        addNow(email);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addNow(email);
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds the email of a user that may have been written by another instance.
+     */
+    public void invalidate(UserInvalidation invalidation) {
+        addNow(invalidation.email());
+    }
+
+    /**
+     * Distrusts the filter until a rebuild that started afterwards has completed. Before the
+     * first rebuild there is nothing to distrust, it has not scanned the table yet.
+     */
+    public void invalidateAll() {
+        resets.incrementAndGet();
+        if (current != null || next != null) {
+            current = null;
+            Thread.ofVirtual()
+                    .name("users-email-filter-rebuild")
+                    .start(this::rebuild);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        rebuild();
+    }
+
+    @Scheduled(fixedDelayString = "${users.email-filter.rebuild-interval:PT1H}",
+            initialDelayString = "${users.email-filter.rebuild-interval:PT1H}")
+    public synchronized void rebuild() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long emails = userRepository.count();
+        BloomFilter rebuilt = new BloomFilter(
+                Math.max(properties.getExpectedEmails(), emails + emails / 4),
+                properties.getFalsePositiveRate());
+        next = rebuilt;
+        // Read after publishing next: a reset from here on sees a rebuild running and starts another.
+        long reset = resets.get();
+        try {
+            scanTransactionTemplate.executeWithoutResult(status -> {
+                try (Stream<String> allEmails = userRepository.streamAllEmails()) {
+                    allEmails.forEach(rebuilt::add);
+                }
+            });
+            if (resets.get() == reset) {
+                current = rebuilt;
+            }
+        } finally {
+            next = null;
+        }
+    }
+
+    /*
+     * The filter being built is read first: if it is already gone, the swap has happened
+     * and current is the rebuilt filter.
+     */
+    private void addNow(String email) {
+        BloomFilter pending = next;
+        if (pending != null) {
+            pending.add(email);
+        }
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.add(email);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.codenomads.springrestapidemo.cache;
+
+import com.codenomads.springrestapidemo.model.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+
+import javax.persistence.PrePersist;
+
+/**
+ * Adds the email of every persisted user to the {@link UserEmailFilter}. The filter is
+ * looked up lazily, since it depends on the repository and thus on the entity manager
+ * factory that creates this listener.
+ */
+@RequiredArgsConstructor
+public class UserEmailFilterListener {
+
+    private final ObjectProvider<UserEmailFilter> userEmailFilter;
+
+    @PrePersist
+    public void addEmail(User user) {
+        userEmailFilter.getObject().add(user.getEmail());
+    }
+}
@@ -0,0 +1,11 @@
+package com.codenomads.springrestapidemo.cache;
+
+import java.util.UUID;
+
+/**
+ * A user that has been changed and must be evicted from every cache. The id is known for
+ * updated users; without it only the lookup by email is evicted, which is enough for created
+ * and deleted users.
+ */
+public record UserInvalidation(String email, UUID id) {
+}
@@ -0,0 +1,28 @@
+package com.codenomads.springrestapidemo.cache;
+
+import java.util.Collection;
+
+/**
+ * Broadcasts changed users to all instances of the application, so that each can evict them
+ * from its own caches. Published invalidations are delivered to the listeners of every other
+ * instance once the publishing transaction has committed. The publishing instance has evicted
+ * its caches itself, and must not evict its second-level cache again for users written
+ * through entities.
+ */
+public interface UserInvalidationChannel {
+
+    void publish(Collection<UserInvalidation> invalidations);
+
+    void subscribe(Listener listener);
+
+    interface Listener {
+
+        void invalidate(UserInvalidation invalidation);
+
+        /**
+         * Called when invalidations may have been missed, for example while the channel was
+         * disconnected.
+         */
+        void invalidateAll();
+    }
+}
@@ -0,0 +1,56 @@
+package com.codenomads.springrestapidemo.cache;
+
+import com.codenomads.springrestapidemo.model.User;
+import org.hibernate.StatelessSession;
+import org.hibernate.cache.spi.access.NaturalIdDataAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.UUID;
+
+/**
+ * Evicts users from Hibernate's second-level cache, which only keeps itself up to date for
+ * changes made through entities. Native statements and the changes of other instances go
+ * around it, so their users are evicted from both the entity and the natural-id region here.
+ */
+@Component
+public class UserSecondLevelCache {
+
+    private final SessionFactoryImplementor sessionFactory;
+    private final EntityPersister persister;
+
+    public UserSecondLevelCache(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        this.persister = sessionFactory.getMetamodel().entityPersister(User.class);
+    }
+
+    /**
+     * Evicts the entity with the given id, if any, and the natural-id entry of the email along
+     * with the entity it points to.
+     */
+    public void evict(UserInvalidation invalidation) {
+        NaturalIdDataAccess naturalIds = persister.getNaturalIdCacheAccessStrategy();
+        if (naturalIds != null) {
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                Object key = naturalIds.generateCacheKey(
+                        new Object[]{invalidation.email()}, persister, (SharedSessionContractImplementor) session);
+                Object cachedId = naturalIds.get((SharedSessionContractImplementor) session, key);
+                naturalIds.evict(key);
+                if (cachedId instanceof UUID id && !id.equals(invalidation.id())) {
+                    sessionFactory.getCache().evictEntityData(User.class, id);
+                }
+            }
+        }
+        if (invalidation.id() != null) {
+            sessionFactory.getCache().evictEntityData(User.class, invalidation.id());
+        }
+    }
+
+    public void evictAll() {
+        sessionFactory.getCache().evictEntityData(User.class);
+        sessionFactory.getCache().evictNaturalIdData(User.class);
+    }
+}
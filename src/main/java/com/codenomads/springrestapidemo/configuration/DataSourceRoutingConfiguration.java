@@ -0,0 +1,79 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import com.codenomads.springrestapidemo.datasource.ReadWriteRoutingDataSource;
+import com.codenomads.springrestapidemo.datasource.ReadYourWritesFilter;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces the auto-configured data source by a read/write router as soon as a replica
+ * is configured under {@code users.datasource.replicas}. The primary keeps its
+ * {@code spring.datasource} settings, and replica pools copy the primary's pool sizing.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "users.datasource", name = "replicas[0].url")
+@EnableConfigurationProperties(UserDataSourceProperties.class)
+public class DataSourceRoutingConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+    }
+
+    @Bean
+    public ReadWriteRoutingDataSource routingDataSource(HikariDataSource primaryDataSource,
+                                                        UserDataSourceProperties properties) {
+        List<DataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < properties.getReplicas().size(); i++) {
+            UserDataSourceProperties.Replica replica = properties.getReplicas().get(i);
+            HikariConfig config = new HikariConfig();
+            config.setPoolName("replica-" + i);
+            config.setJdbcUrl(replica.getUrl());
+            config.setUsername(replica.getUsername());
+            config.setPassword(replica.getPassword());
+            config.setReadOnly(true);
+            // Unset sizes are -1 until the primary pool starts, Hikari's defaults apply then.
+            if (primaryDataSource.getMaximumPoolSize() > 0) {
+                config.setMaximumPoolSize(primaryDataSource.getMaximumPoolSize());
+            }
+            if (primaryDataSource.getMinimumIdle() >= 0) {
+                config.setMinimumIdle(primaryDataSource.getMinimumIdle());
+            }
+            config.setConnectionTimeout(primaryDataSource.getConnectionTimeout());
+            // A replica that is down at startup is only taken out of rotation.
+            config.setInitializationFailTimeout(-1);
+            replicas.add(new HikariDataSource(config));
+        }
+        return new ReadWriteRoutingDataSource(
+                primaryDataSource,
+                replicas,
+                properties.getReadYourWritesWindow(),
+                properties.getHealthCheckInterval());
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter(ReadWriteRoutingDataSource routingDataSource) {
+        return new ReadYourWritesFilter(routingDataSource);
+    }
+}
@@ -1,17 +1,57 @@
 package com.codenomads.springrestapidemo.configuration;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
+/**
+ * Besides JSON, the API speaks CBOR ({@code application/cbor}) and Smile
+ * ({@code application/x-jackson-smile}) for clients that ask for them. The binary mappers
+ * are configured like the JSON one Spring MVC uses, so the same annotations apply.
+ */
 @Configuration
-public class JacksonConfiguration {
+public class JacksonConfiguration implements WebMvcConfigurer {
 
+    /**
+     * Built from Boot's builder, which also backs the JSON message converter, so exports and
+     * responses are written alike.
+     */
     @Bean
-    public ObjectMapper objectMapper() {
-        return JsonMapper.builder()
-                .findAndAddModules()
+    public ObjectMapper objectMapper(Jackson2ObjectMapperBuilder builder) {
+        return builder.build();
+    }
+
+    public static ObjectMapper cborMapper() {
+        return Jackson2ObjectMapperBuilder.cbor().build();
+    }
+
+    /**
+     * Smile with shared-name back-references, so every repeated property name in a page
+     * after the first is written as a one-byte reference.
+     */
+    public static ObjectMapper smileMapper() {
+        SmileFactory smileFactory = SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+                .build();
+        return Jackson2ObjectMapperBuilder.smile()
+                .factory(smileFactory)
                 .build();
     }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.removeIf(converter -> converter instanceof MappingJackson2CborHttpMessageConverter
+                || converter instanceof MappingJackson2SmileHttpMessageConverter);
+        converters.add(new MappingJackson2CborHttpMessageConverter(cborMapper()));
+        converters.add(new MappingJackson2SmileHttpMessageConverter(smileMapper()));
+    }
 }
@@ -0,0 +1,19 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfiguration {
+
+    public static final String SERVICE_TIMER = "users.service";
+
+    public static final String USER_NOT_FOUND_COUNTER = "users.not.found";
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
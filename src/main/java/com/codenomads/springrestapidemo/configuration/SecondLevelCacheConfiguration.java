@@ -0,0 +1,96 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import com.codenomads.springrestapidemo.cache.LoopbackUserInvalidationChannel;
+import com.codenomads.springrestapidemo.cache.PostgresUserInvalidationChannel;
+import com.codenomads.springrestapidemo.cache.UserInvalidationChannel;
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/**
+ * Backs Hibernate's second-level cache with Caffeine through JCache. Only the regions of the
+ * user entity and its natural id exist, bounded and expiring as configured under
+ * {@code users.cache.second-level}. Entries are stored by reference: Hibernate caches
+ * disassembled state that it never modifies, so copying it on every access would be wasted.
+ * <p>
+ * Invalidations between instances go through the channel configured under
+ * {@code users.cache.invalidation.channel}, Postgres unless set otherwise, or the application
+ * defines a {@link UserInvalidationChannel} of its own. The loopback channel keeps them on
+ * this instance, which only suits a single instance and tests, so it is warned about.
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(UserCacheProperties.class)
+public class SecondLevelCacheConfiguration {
+
+    public static final String USER_REGION = "users.entities";
+    public static final String USER_NATURAL_ID_REGION = "users.natural-ids";
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCacheCustomizer(UserCacheProperties properties) {
+        UserCacheProperties.SecondLevel secondLevel = properties.getSecondLevel();
+        return hibernateProperties -> {
+            hibernateProperties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, secondLevel.isEnabled());
+            if (secondLevel.isEnabled()) {
+                hibernateProperties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+                hibernateProperties.put(ConfigSettings.CACHE_MANAGER, cacheManager(secondLevel));
+                hibernateProperties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+            }
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "users.cache.invalidation", name = "channel", havingValue = "postgres",
+            matchIfMissing = true)
+    public PostgresUserInvalidationChannel postgresUserInvalidationChannel(JdbcTemplate jdbcTemplate,
+                                                                           DataSourceProperties dataSourceProperties,
+                                                                           UserCacheProperties properties) {
+        return new PostgresUserInvalidationChannel(
+                jdbcTemplate, dataSourceProperties, properties.getInvalidation().getReconnectInterval());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(UserInvalidationChannel.class)
+    public LoopbackUserInvalidationChannel loopbackUserInvalidationChannel() {
+        log.warn("User cache invalidations are not shared with other instances, which serve stale users "
+                + "until their cache entries expire. Set users.cache.invalidation.channel=postgres when running "
+                + "more than one instance.");
+        return new LoopbackUserInvalidationChannel();
+    }
+
+    /**
+     * Every application context gets a cache manager of its own, which Hibernate closes along
+     * with the session factory.
+     */
+    private static CacheManager cacheManager(UserCacheProperties.SecondLevel properties) {
+        CaffeineCachingProvider provider = (CaffeineCachingProvider) Caching.getCachingProvider(
+                CaffeineCachingProvider.class.getName());
+        CacheManager cacheManager = provider.getCacheManager(
+                URI.create("users-second-level-cache-" + UUID.randomUUID()), provider.getDefaultClassLoader());
+        for (String region : new String[]{USER_REGION, USER_NATURAL_ID_REGION}) {
+            CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+            configuration.setMaximumSize(OptionalLong.of(properties.getMaximumSize()));
+            configuration.setExpireAfterWrite(OptionalLong.of(properties.getTtl().toNanos()));
+            configuration.setStoreByValue(false);
+            configuration.setStatisticsEnabled(true);
+            cacheManager.createCache(region, configuration);
+        }
+        return cacheManager;
+    }
+}
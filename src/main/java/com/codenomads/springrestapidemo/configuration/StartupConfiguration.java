@@ -0,0 +1,28 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import com.codenomads.springrestapidemo.cache.UserEmailFilter;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+/**
+ * The {@code production} profile starts the application lazily, see
+ * {@code application-production.properties}. The beans kept eager here are needed by the very
+ * first request anyway, and building them lazily would only move their cost from startup, where
+ * the instance is not yet receiving traffic, onto that request. The email filter also schedules
+ * its own rebuilds, which a lazy bean would only do once it is first used.
+ */
+@Configuration
+public class StartupConfiguration {
+
+    public static final String PRODUCTION_PROFILE = "production";
+
+    @Bean
+    public static LazyInitializationExcludeFilter eagerPersistenceExcludeFilter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                DataSource.class, EntityManagerFactory.class, UserEmailFilter.class);
+    }
+}
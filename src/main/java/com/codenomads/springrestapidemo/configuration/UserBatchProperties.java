@@ -0,0 +1,19 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "users.batch")
+public class UserBatchProperties {
+
+    /**
+     * The most items a batch request body may hold. The configured maximum can only lower it.
+     */
+    public static final int MAXIMUM_ITEMS = 10_000;
+
+    private int chunkSize = 500;
+
+    private int maximumItems = MAXIMUM_ITEMS;
+
+}
@@ -0,0 +1,48 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "users.cache")
+public class UserCacheProperties {
+
+    private long maximumSize = 10_000;
+
+    private Duration ttl = Duration.ofMinutes(10);
+
+    private Duration negativeTtl = Duration.ofSeconds(30);
+
+    private Duration maximumCoalescingWait = Duration.ofSeconds(1);
+
+    private SecondLevel secondLevel = new SecondLevel();
+
+    private Invalidation invalidation = new Invalidation();
+
+    @Data
+    public static class SecondLevel {
+
+        private boolean enabled = true;
+
+        private long maximumSize = 100_000;
+
+        private Duration ttl = Duration.ofMinutes(10);
+
+    }
+
+    @Data
+    public static class Invalidation {
+
+        private Channel channel = Channel.POSTGRES;
+
+        private Duration reconnectInterval = Duration.ofSeconds(5);
+
+    }
+
+    public enum Channel {
+        LOOPBACK,
+        POSTGRES
+    }
+}
@@ -0,0 +1,36 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * The gap timeout bounds how long the feed waits for a change whose offset was drawn by a
+ * transaction that has not committed yet, before moving on without it. A change committed
+ * within the late change timeout after that is still streamed, out of order; one committed
+ * even later only reaches subscribers that catch up from the outbox table.
+ */
+@Data
+@ConfigurationProperties(prefix = "users.changes")
+public class UserChangeFeedProperties {
+
+    private Duration pollInterval = Duration.ofMillis(500);
+
+    private Duration gapTimeout = Duration.ofSeconds(10);
+
+    private Duration lateChangeTimeout = Duration.ofMinutes(5);
+
+    private int pageSize = 500;
+
+    private int bufferSize = 1_000;
+
+    private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+    private Duration connectionTimeout = Duration.ofMinutes(30);
+
+    private Duration retention = Duration.ofDays(7);
+
+    private Duration purgeInterval = Duration.ofHours(1);
+
+}
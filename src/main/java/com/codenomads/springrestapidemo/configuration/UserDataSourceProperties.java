@@ -0,0 +1,30 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "users.datasource")
+public class UserDataSourceProperties {
+
+    private List<Replica> replicas = new ArrayList<>();
+
+    private Duration readYourWritesWindow = Duration.ofSeconds(2);
+
+    private Duration healthCheckInterval = Duration.ofSeconds(5);
+
+    @Data
+    public static class Replica {
+
+        private String url;
+
+        private String username;
+
+        private String password;
+
+    }
+}
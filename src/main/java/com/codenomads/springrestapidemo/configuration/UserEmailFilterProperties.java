@@ -0,0 +1,24 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Sizing of the email existence filter. Memory follows from the false-positive rate: about
+ * 1.2 MB per million emails at 1%, 1.8 MB at 0.1%.
+ */
+@Data
+@ConfigurationProperties(prefix = "users.email-filter")
+public class UserEmailFilterProperties {
+
+    private boolean enabled = true;
+
+    private long expectedEmails = 1_000_000;
+
+    private double falsePositiveRate = 0.01;
+
+    private Duration rebuildInterval = Duration.ofHours(1);
+
+}
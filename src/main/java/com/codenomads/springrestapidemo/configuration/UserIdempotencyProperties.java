@@ -0,0 +1,31 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Retention of the responses to requests sent with an {@code Idempotency-Key}. The table
+ * tier lets retries reach any instance and survive restarts. The claim timeout has to
+ * outlast the longest request, since a retry takes over a claim once it has expired.
+ */
+@Data
+@ConfigurationProperties(prefix = "users.idempotency")
+public class UserIdempotencyProperties {
+
+    private long maximumSize = 100_000;
+
+    private Duration ttl = Duration.ofHours(24);
+
+    private boolean tableEnabled = false;
+
+    private Duration waitTimeout = Duration.ofSeconds(10);
+
+    private Duration claimTimeout = Duration.ofMinutes(2);
+
+    private Duration pollInterval = Duration.ofMillis(50);
+
+    private Duration purgeInterval = Duration.ofHours(1);
+
+}
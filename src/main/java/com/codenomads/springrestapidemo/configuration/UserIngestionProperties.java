@@ -0,0 +1,26 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "users.ingestion")
+public class UserIngestionProperties {
+
+    private boolean enabled = false;
+
+    private int queueCapacity = 10_000;
+
+    private int batchSize = 500;
+
+    private Duration statusRetention = Duration.ofMinutes(10);
+
+    private long statusMaximumSize = 100_000;
+
+    private Duration purgeInterval = Duration.ofMinutes(10);
+
+    private Duration drainTimeout = Duration.ofSeconds(30);
+
+}
@@ -0,0 +1,73 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-client rate limits and the shared concurrency limit in front of the user endpoints.
+ * Reads and writes get separate limits, which {@code endpoints} can override per handler
+ * method, for example {@code users.rate-limit.endpoints.createOrUpdateUsers.permits-per-second}.
+ */
+@Data
+@ConfigurationProperties(prefix = "users.rate-limit")
+public class UserRateLimitProperties {
+
+    private boolean enabled = true;
+
+    private Limit reads = new Limit(100, 200);
+
+    private Limit writes = new Limit(20, 40);
+
+    private Map<String, Limit> endpoints = new HashMap<>();
+
+    private long maximumClients = 100_000;
+
+    private Duration clientIdleTimeout = Duration.ofMinutes(10);
+
+    private Concurrency concurrency = new Concurrency();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Limit {
+
+        private double permitsPerSecond;
+
+        private int burst;
+
+    }
+
+    /**
+     * The limit grows by one per limit's worth of requests answered within the latency
+     * threshold and shrinks by the backoff ratio, at most once per threshold, when one is not.
+     * Endpoints that stream for as long as there is data are excluded, their duration says
+     * nothing about the load.
+     */
+    @Data
+    public static class Concurrency {
+
+        private int initialLimit = 50;
+
+        private int minimumLimit = 5;
+
+        private int maximumLimit = 200;
+
+        private Duration latencyThreshold = Duration.ofMillis(500);
+
+        private double backoffRatio = 0.9;
+
+        private int maximumPendingConnections = 10;
+
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        private Set<String> excludedEndpoints = Set.of("exportUsersAsNdjson", "exportUsersAsCsv", "streamChanges");
+
+    }
+}
@@ -0,0 +1,31 @@
+package com.codenomads.springrestapidemo.configuration;
+
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Runs Tomcat request handling and {@code @Async} work on virtual threads. Activated with the
+ * {@code virtual-threads} profile; without it Boot's platform thread pools are used.
+ */
+@Configuration
+@Profile(VirtualThreadConfiguration.PROFILE)
+public class VirtualThreadConfiguration {
+
+    public static final String PROFILE = "virtual-threads";
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
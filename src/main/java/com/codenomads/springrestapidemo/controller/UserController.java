@@ -1,20 +1,53 @@
 package com.codenomads.springrestapidemo.controller;
 
+import com.codenomads.springrestapidemo.datasource.ReadYourWritesFilter;
+import com.codenomads.springrestapidemo.dto.BatchResultDto;
+import com.codenomads.springrestapidemo.dto.BulkDeleteResultDto;
+import com.codenomads.springrestapidemo.dto.IngestionStatusDto;
+import com.codenomads.springrestapidemo.dto.KeysetCursor;
+import com.codenomads.springrestapidemo.dto.KeysetSliceDto;
 import com.codenomads.springrestapidemo.dto.UserDto;
 import com.codenomads.springrestapidemo.dto.UserDtoMapper;
+import com.codenomads.springrestapidemo.dto.UserSearchCriteria;
+import com.codenomads.springrestapidemo.dto.VersionedUserDto;
+import com.codenomads.springrestapidemo.export.CsvUserExportWriter;
+import com.codenomads.springrestapidemo.export.NdjsonUserExportWriter;
+import com.codenomads.springrestapidemo.export.UserExportWriter;
+import com.codenomads.springrestapidemo.idempotency.IdempotencyStore;
 import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.service.UserBatchService;
+import com.codenomads.springrestapidemo.service.UserChangeFeed;
+import com.codenomads.springrestapidemo.service.UserIngestionService;
 import com.codenomads.springrestapidemo.service.UserService;
+import com.codenomads.springrestapidemo.validation.EmailAddress;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolationException;
 import javax.validation.Valid;
-import javax.validation.constraints.Email;
 import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static com.codenomads.springrestapidemo.configuration.UserBatchProperties.MAXIMUM_ITEMS;
 
 @RestController
 @RequestMapping(value = "users")
@@ -22,49 +55,199 @@ import javax.validation.constraints.NotEmpty;
 @Validated
 public class UserController {
 
+    private static final String TEXT_CSV_VALUE = "text/csv";
+    private static final String PREFER = "Prefer";
+    private static final String RESPOND_ASYNC = "respond-async";
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
+
     private final UserService userService;
+    private final UserBatchService userBatchService;
+    private final UserIngestionService userIngestionService;
+    private final UserChangeFeed userChangeFeed;
+    private final IdempotencyStore idempotencyStore;
     private final UserDtoMapper userDtoMapper;
+    private final ObjectMapper objectMapper;
 
+    /*
+     * The GET handlers return the entity tag on the ResponseEntity, which lets Spring answer
+     * If-None-Match and If-Modified-Since with a 304 before the body is serialized.
+     */
     @GetMapping("{email}")
-    @ResponseStatus(HttpStatus.OK)
-    public UserDto getUserByEmail(@PathVariable
-                                  @NotEmpty
-                                  @Email(regexp = "^[\\w-\\.]+@([\\w-]+\\.)+[\\w-]{2,4}$")
-                                  String email) {
-        User user = userService.getUserByEmail(email);
-        return userDtoMapper.toDto(user);
+    public ResponseEntity<UserDto> getUserByEmail(@PathVariable
+                                                  @NotEmpty
+                                                  @EmailAddress
+                                                  String email) {
+        VersionedUserDto user = userService.getUserByEmail(email);
+        return ResponseEntity.ok()
+                .eTag(user.getETag())
+                .lastModified(user.getLastModified())
+                .body(user.getUser());
     }
 
+    /*
+     * No Last-Modified here: deleting a user changes the page without advancing any
+     * timestamp on it, so only the entity tag can be trusted.
+     */
     @GetMapping
+    public ResponseEntity<Page<UserDto>> getAllUsersByPage(@PageableDefault(size = 50) Pageable pageable) {
+        Page<VersionedUserDto> page = userService.getAllUsersByPage(pageable);
+        return ResponseEntity.ok()
+                .eTag(VersionedUserDto.eTagOf(page))
+                .body(page.map(VersionedUserDto::getUser));
+    }
+
+    @GetMapping("keyset")
     @ResponseStatus(HttpStatus.OK)
-    public Page<UserDto> getAllUsersByPage(@PageableDefault(size = 50) Pageable pageable) {
-        return userService.getAllUsersByPage(pageable)
-                .map(userDtoMapper::toDto);
+    public KeysetSliceDto<UserDto> getAllUsersByKeyset(@RequestParam(required = false) String cursor,
+                                                       @PageableDefault(size = 50) Pageable pageable) {
+        String lastEmail = cursor == null ? null : KeysetCursor.decode(cursor);
+        return toKeysetSlice(userService.getUsersByKeyset(lastEmail, pageable));
     }
 
+    @GetMapping("search")
+    @ResponseStatus(HttpStatus.OK)
+    public KeysetSliceDto<UserDto> searchUsers(UserSearchCriteria criteria,
+                                               @RequestParam(required = false) String cursor,
+                                               @PageableDefault(size = 50) Pageable pageable) {
+        String lastEmail = cursor == null ? null : KeysetCursor.decode(cursor);
+        return toKeysetSlice(userService.searchUsers(criteria, lastEmail, pageable));
+    }
+
+    @GetMapping(value = "export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    public void exportUsersAsNdjson(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        exportUsers(new NdjsonUserExportWriter(objectMapper, response.getOutputStream()));
+    }
+
+    @GetMapping(value = "export", produces = TEXT_CSV_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    public void exportUsersAsCsv(HttpServletResponse response) throws IOException {
+        response.setContentType(TEXT_CSV_VALUE);
+        exportUsers(new CsvUserExportWriter(response.getOutputStream()));
+    }
+
+    /*
+     * Streams changes after the given offset, or from now on. Reconnecting EventSource clients
+     * send the id of the last event they received as Last-Event-ID and resume after it.
+     */
+    @GetMapping(value = "changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestHeader(name = LAST_EVENT_ID, required = false) Long lastEventId,
+                                    @RequestParam(required = false) Long offset) {
+        return userChangeFeed.subscribe(lastEventId != null ? lastEventId : offset);
+    }
+
+    /*
+     * With ingestion enabled, clients sending "Prefer: respond-async" get a 202 and a
+     * tracking id instead of waiting for the insert. Retries sent with the same
+     * Idempotency-Key get the first response replayed.
+     */
     @PostMapping
-    @ResponseStatus(HttpStatus.CREATED)
-    public UserDto createUser(@RequestBody @Valid UserDto userDto) {
+    public ResponseEntity<?> createUser(@RequestBody @Valid UserDto userDto,
+                                        @RequestHeader(name = PREFER, required = false) String prefer,
+                                        @RequestHeader(name = IdempotencyStore.IDEMPOTENCY_KEY_HEADER, required = false)
+                                        String idempotencyKey,
+                                        HttpServletRequest request) {
+        if (idempotencyKey == null) {
+            return createUser(userDto, prefer);
+        }
+        return idempotencyStore.execute(ReadYourWritesFilter.getCaller(request), idempotencyKey,
+                Arrays.asList(userDto, prefer), () -> createUser(userDto, prefer));
+    }
+
+    private ResponseEntity<?> createUser(UserDto userDto, String prefer) {
         User userToCreate = userDtoMapper.toUser(userDto);
+        if (prefer != null && prefer.contains(RESPOND_ASYNC) && userIngestionService.isEnabled()) {
+            IngestionStatusDto status = userIngestionService.submit(userToCreate);
+            return ResponseEntity.accepted()
+                    .location(ServletUriComponentsBuilder.fromCurrentRequestUri()
+                            .path("/ingestion/{trackingId}")
+                            .buildAndExpand(status.getTrackingId())
+                            .toUri())
+                    .body(status);
+        }
         User savedUser = userService.createUser(userToCreate);
-        return userDtoMapper.toDto(savedUser);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(userDtoMapper.toDto(savedUser));
     }
 
-    @PutMapping
+    @GetMapping("ingestion/{trackingId}")
     @ResponseStatus(HttpStatus.OK)
-    public UserDto createOrUpdateUser(@RequestBody @Valid UserDto userDto) {
+    public IngestionStatusDto getIngestionStatus(@PathVariable UUID trackingId) {
+        return userIngestionService.getStatus(trackingId);
+    }
+
+    @PutMapping
+    public ResponseEntity<UserDto> createOrUpdateUser(@RequestBody @Valid UserDto userDto,
+                                                      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false)
+                                                      String ifMatch) {
         User userToCreateOrUpdate = userDtoMapper.toUser(userDto);
-        User savedUser = userService.createOrUpdateUser(userToCreateOrUpdate);
-        return userDtoMapper.toDto(savedUser);
+        User savedUser = ifMatch == null
+                ? userService.createOrUpdateUser(userToCreateOrUpdate)
+                : userService.updateUserIfMatch(userToCreateOrUpdate, ifMatch);
+        return ResponseEntity.ok()
+                .eTag(VersionedUserDto.eTagOf(savedUser.getId(), savedUser.getVersion()))
+                .lastModified(savedUser.getLastModified())
+                .body(userDtoMapper.toDto(savedUser));
+    }
+
+    @PostMapping("batch")
+    @ResponseStatus(HttpStatus.OK)
+    public BatchResultDto createUsers(@RequestBody @Size(max = MAXIMUM_ITEMS) List<UserDto> userDtos) {
+        return userBatchService.createUsers(userDtos);
+    }
+
+    @PutMapping("batch")
+    @ResponseStatus(HttpStatus.OK)
+    public BatchResultDto createOrUpdateUsers(@RequestBody @Size(max = MAXIMUM_ITEMS) List<UserDto> userDtos) {
+        return userBatchService.createOrUpdateUsers(userDtos);
     }
 
     @DeleteMapping("{email}")
     @ResponseStatus(HttpStatus.OK)
     public void deleteUser(@PathVariable
                            @NotEmpty
-                           @Email(regexp = "^[\\w-\\.]+@([\\w-]+\\.)+[\\w-]{2,4}$")
+                           @EmailAddress
                            String email) {
         userService.deleteUserByEmail(email);
     }
 
+    @DeleteMapping
+    @ResponseStatus(HttpStatus.OK)
+    public BulkDeleteResultDto deleteUsers(@RequestBody
+                                           @Size(max = MAXIMUM_ITEMS)
+                                           List<@NotEmpty @EmailAddress String> emails) {
+        return userBatchService.deleteUsers(emails);
+    }
+
+    /**
+     * Constraints on path variables and request bodies are checked by method validation, whose
+     * violations would otherwise end up as server errors.
+     */
+    @ExceptionHandler(ConstraintViolationException.class)
+    public void rejectConstraintViolation(ConstraintViolationException e, HttpServletResponse response)
+            throws IOException {
+        response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+    }
+
+    private static KeysetSliceDto<UserDto> toKeysetSlice(Slice<UserDto> slice) {
+        List<UserDto> content = slice.getContent();
+        String nextCursor = slice.hasNext()
+                ? KeysetCursor.encode(content.get(content.size() - 1).getEmail())
+                : null;
+        return new KeysetSliceDto<>(content, content.size(), slice.hasNext(), nextCursor);
+    }
+
+    private void exportUsers(UserExportWriter writer) throws IOException {
+        try (writer) {
+            userService.exportUsers(user -> {
+                try {
+                    writer.write(userDtoMapper.toDto(user));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
 }
@@ -0,0 +1,43 @@
+package com.codenomads.springrestapidemo.datasource;
+
+/**
+ * Identity of the caller the current thread is serving, used to keep a caller's reads on
+ * the primary right after its own writes. Set for the duration of a request by the
+ * {@link ReadYourWritesFilter}.
+ */
+public final class CallerContext {
+
+    private static final ThreadLocal<CallerContext> CURRENT = new ThreadLocal<>();
+
+    private final String caller;
+    private boolean written;
+
+    private CallerContext(String caller) {
+        this.caller = caller;
+    }
+
+    static void open(String caller) {
+        CURRENT.set(new CallerContext(caller));
+    }
+
+    /**
+     * Clears the context and reports whether the caller wrote while it was open.
+     */
+    static boolean close() {
+        CallerContext context = CURRENT.get();
+        CURRENT.remove();
+        return context != null && context.written;
+    }
+
+    static String currentCaller() {
+        CallerContext context = CURRENT.get();
+        return context == null ? null : context.caller;
+    }
+
+    static void markWritten() {
+        CallerContext context = CURRENT.get();
+        if (context != null) {
+            context.written = true;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.codenomads.springrestapidemo.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends connections of read-only transactions to the replicas, round robin, and everything
+ * else to the primary. It has to sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, so that the
+ * connection is only fetched once the transaction's read-only flag is known.
+ * <p>
+ * A replica is taken out of rotation when it fails to hand out a connection or fails the
+ * periodic health check, and put back once the check passes again. Callers that wrote
+ * within the read-your-writes window read from the primary, so they never miss their own
+ * writes because of replication lag. So do reads run through {@link #readFromPrimary}, which
+ * unlike a read-write transaction do not count as a write of the caller.
+ */
+@Slf4j
+public class ReadWriteRoutingDataSource extends AbstractDataSource implements InitializingBean, DisposableBean {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+    private static final ThreadLocal<Boolean> PRIMARY_READS = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final Duration healthCheckInterval;
+    private final Set<DataSource> unhealthyReplicas = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Cache<String, Boolean> recentWriters;
+
+    private ScheduledExecutorService healthChecker;
+
+    public ReadWriteRoutingDataSource(DataSource primary,
+                                      List<DataSource> replicas,
+                                      Duration readYourWritesWindow,
+                                      Duration healthCheckInterval) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.healthCheckInterval = healthCheckInterval;
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(readYourWritesWindow)
+                .build();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(DataSource::getConnection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection(dataSource -> dataSource.getConnection(username, password));
+    }
+
+    /**
+     * Runs the action with the connections of read-only transactions taken from the primary.
+     * Only connections fetched within the action are affected, so the transaction has to
+     * start its first statement there.
+     */
+    public static <T> T readFromPrimary(Supplier<T> action) {
+        Boolean previous = PRIMARY_READS.get();
+        PRIMARY_READS.set(Boolean.TRUE);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                PRIMARY_READS.remove();
+            }
+        }
+    }
+
+    /**
+     * Starts the read-your-writes window for the given caller.
+     */
+    public void recordWrite(String caller) {
+        recentWriters.put(caller, Boolean.TRUE);
+    }
+
+    public void checkReplicas() {
+        for (DataSource replica : replicas) {
+            try (Connection connection = replica.getConnection()) {
+                if (connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    if (unhealthyReplicas.remove(replica)) {
+                        log.info("Replica {} is healthy again.", replica);
+                    }
+                } else {
+                    markUnhealthy(replica, null);
+                }
+            } catch (SQLException e) {
+                markUnhealthy(replica, e);
+            }
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        healthChecker = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("replica-health-check")
+                .daemon()
+                .factory());
+        long intervalMillis = healthCheckInterval.toMillis();
+        healthChecker.scheduleWithFixedDelay(this::checkReplicas, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (DataSource replica : replicas) {
+            if (replica instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private Connection getConnection(ConnectionSource connectionSource) throws SQLException {
+        String caller = CallerContext.currentCaller();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (caller != null) {
+                recordWrite(caller);
+                CallerContext.markWritten();
+            }
+            return connectionSource.getConnection(primary);
+        }
+        if (PRIMARY_READS.get() != null || caller != null && recentWriters.getIfPresent(caller) != null) {
+            return connectionSource.getConnection(primary);
+        }
+        DataSource replica = nextHealthyReplica();
+        if (replica == null) {
+            return connectionSource.getConnection(primary);
+        }
+        try {
+            return connectionSource.getConnection(replica);
+        } catch (SQLException e) {
+            markUnhealthy(replica, e);
+            return connectionSource.getConnection(primary);
+        }
+    }
+
+    private DataSource nextHealthyReplica() {
+        List<DataSource> healthyReplicas = unhealthyReplicas.isEmpty()
+                ? replicas
+                : replicas.stream().filter(replica -> !unhealthyReplicas.contains(replica)).toList();
+        if (healthyReplicas.isEmpty()) {
+            return null;
+        }
+        return healthyReplicas.get(Math.floorMod(nextReplica.getAndIncrement(), healthyReplicas.size()));
+    }
+
+    private void markUnhealthy(DataSource replica, SQLException cause) {
+        if (unhealthyReplicas.add(replica)) {
+            log.warn("Replica {} is unhealthy and taken out of rotation.", replica, cause);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ConnectionSource {
+
+        Connection getConnection(DataSource dataSource) throws SQLException;
+
+    }
+}
@@ -0,0 +1,43 @@
+package com.codenomads.springrestapidemo.datasource;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Identifies the caller of a request, by the {@value #CLIENT_ID_HEADER} header or else
+ * the remote address. A caller that wrote during the request gets its read-your-writes
+ * window restarted once the request has completed, that is after the commit.
+ */
+@RequiredArgsConstructor
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    public static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+    private final ReadWriteRoutingDataSource routingDataSource;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        String caller = getCaller(request);
+        CallerContext.open(caller);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (CallerContext.close()) {
+                routingDataSource.recordWrite(caller);
+            }
+        }
+    }
+
+    public static String getCaller(HttpServletRequest request) {
+        String clientId = request.getHeader(CLIENT_ID_HEADER);
+        return clientId == null ? request.getRemoteAddr() : clientId;
+    }
+}
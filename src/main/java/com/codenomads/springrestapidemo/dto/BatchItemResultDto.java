@@ -0,0 +1,29 @@
+package com.codenomads.springrestapidemo.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResultDto {
+
+    private int index;
+
+    private String email;
+
+    private BatchItemStatus status;
+
+    private String error;
+
+    public static BatchItemResultDto succeeded(int index, String email, BatchItemStatus status) {
+        return new BatchItemResultDto(index, email, status, null);
+    }
+
+    public static BatchItemResultDto failed(int index, String email, String error) {
+        return new BatchItemResultDto(index, email, BatchItemStatus.FAILED, error);
+    }
+}
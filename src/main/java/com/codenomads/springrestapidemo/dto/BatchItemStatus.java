@@ -0,0 +1,7 @@
+package com.codenomads.springrestapidemo.dto;
+
+public enum BatchItemStatus {
+    CREATED,
+    UPDATED,
+    FAILED
+}
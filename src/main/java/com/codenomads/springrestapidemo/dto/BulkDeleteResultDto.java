@@ -0,0 +1,16 @@
+package com.codenomads.springrestapidemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkDeleteResultDto {
+
+    private int requested;
+
+    private int deleted;
+
+}
@@ -0,0 +1,7 @@
+package com.codenomads.springrestapidemo.dto;
+
+public enum IngestionStatus {
+    PENDING,
+    CREATED,
+    FAILED
+}
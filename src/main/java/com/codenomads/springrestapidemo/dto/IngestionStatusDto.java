@@ -0,0 +1,35 @@
+package com.codenomads.springrestapidemo.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestionStatusDto {
+
+    private UUID trackingId;
+
+    private String email;
+
+    private IngestionStatus status;
+
+    private String error;
+
+    public static IngestionStatusDto pending(UUID trackingId, String email) {
+        return new IngestionStatusDto(trackingId, email, IngestionStatus.PENDING, null);
+    }
+
+    public static IngestionStatusDto created(UUID trackingId, String email) {
+        return new IngestionStatusDto(trackingId, email, IngestionStatus.CREATED, null);
+    }
+
+    public static IngestionStatusDto failed(UUID trackingId, String email, String error) {
+        return new IngestionStatusDto(trackingId, email, IngestionStatus.FAILED, error);
+    }
+}
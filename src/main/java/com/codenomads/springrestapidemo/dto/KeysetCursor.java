@@ -0,0 +1,31 @@
+package com.codenomads.springrestapidemo.dto;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque continuation token for keyset pagination. It wraps the sort key of the last row
+ * of a slice; clients must pass it back unchanged.
+ */
+public final class KeysetCursor {
+
+    private KeysetCursor() {
+    }
+
+    public static String encode(String key) {
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decode(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor '%s'.".formatted(cursor));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.codenomads.springrestapidemo.dto;
+
+import com.codenomads.springrestapidemo.model.UserChange;
+import com.codenomads.springrestapidemo.model.UserChangeType;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserChangeDto {
+
+    private long offset;
+
+    private UserChangeType type;
+
+    private String email;
+
+    private String name;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+    private LocalDate birthDate;
+
+    private Long version;
+
+    private Instant occurredAt;
+
+    public static UserChangeDto of(UserChange change) {
+        return new UserChangeDto(change.getId(), change.getType(), change.getEmail(), change.getName(),
+                change.getBirthDate(), change.getVersion(), change.getOccurredAt());
+    }
+}
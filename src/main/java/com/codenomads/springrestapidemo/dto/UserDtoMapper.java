@@ -6,11 +6,15 @@ import org.springframework.stereotype.Component;
 @Component
 public class UserDtoMapper {
 
+    /**
+     * Expects a validated user, the constraints of the returned entity are not checked again.
+     */
     public User toUser(UserDto userDto) {
         return User.builder()
                 .name(userDto.getName())
                 .email(userDto.getEmail())
                 .birthDate(userDto.getBirthDate())
+                .validated(true)
                 .build();
     }
 
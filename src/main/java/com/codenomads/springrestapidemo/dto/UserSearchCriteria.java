@@ -0,0 +1,21 @@
+package com.codenomads.springrestapidemo.dto;
+
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+
+@Data
+public class UserSearchCriteria {
+
+    private String name;
+
+    private String emailPrefix;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate birthDateFrom;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate birthDateTo;
+
+}
@@ -0,0 +1,45 @@
+package com.codenomads.springrestapidemo.dto;
+
+import lombok.Getter;
+import org.springframework.data.domain.Page;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * A user together with the validators needed for conditional requests. The entity tag is
+ * derived from the row id and its version column, so a user that is deleted and created
+ * again under the same email never reuses an old tag.
+ */
+@Getter
+public class VersionedUserDto {
+
+    private final UserDto user;
+
+    private final String eTag;
+
+    private final Instant lastModified;
+
+    public VersionedUserDto(UUID id, Long version, Instant lastModified, String name, String email, LocalDate birthDate) {
+        this.user = new UserDto(name, email, birthDate);
+        this.eTag = eTagOf(id, version);
+        this.lastModified = lastModified;
+    }
+
+    public static String eTagOf(UUID id, Long version) {
+        return "\"%x-%d\"".formatted(id.getMostSignificantBits() ^ id.getLeastSignificantBits(), version);
+    }
+
+    /**
+     * Tag of a whole page, covering the tags of its items and the total count, so that any
+     * insert, update or delete that affects the page changes it.
+     */
+    public static String eTagOf(Page<VersionedUserDto> page) {
+        StringBuilder validators = new StringBuilder().append(page.getTotalElements());
+        page.forEach(user -> validators.append(user.getETag()));
+        return "\"" + DigestUtils.md5DigestAsHex(validators.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+}
@@ -0,0 +1,51 @@
+package com.codenomads.springrestapidemo.export;
+
+import com.codenomads.springrestapidemo.dto.UserDto;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+public class CsvUserExportWriter implements UserExportWriter {
+
+    private static final String HEADER = "name,email,birthDate";
+
+    private final Writer writer;
+
+    public CsvUserExportWriter(OutputStream outputStream) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.write(HEADER);
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void write(UserDto user) throws IOException {
+        writeField(user.getName());
+        writer.write(',');
+        writeField(user.getEmail());
+        writer.write(',');
+        writeField(user.getBirthDate() == null ? null : user.getBirthDate().toString());
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeField(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
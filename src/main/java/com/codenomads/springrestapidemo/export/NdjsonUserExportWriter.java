@@ -0,0 +1,31 @@
+package com.codenomads.springrestapidemo.export;
+
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class NdjsonUserExportWriter implements UserExportWriter {
+
+    private final ObjectWriter objectWriter;
+    private final JsonGenerator generator;
+
+    public NdjsonUserExportWriter(ObjectMapper objectMapper, OutputStream outputStream) throws IOException {
+        this.objectWriter = objectMapper.writerFor(UserDto.class);
+        this.generator = objectMapper.getFactory().createGenerator(outputStream);
+    }
+
+    @Override
+    public void write(UserDto user) throws IOException {
+        objectWriter.writeValue(generator, user);
+        generator.writeRaw('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
@@ -0,0 +1,16 @@
+package com.codenomads.springrestapidemo.export;
+
+import com.codenomads.springrestapidemo.dto.UserDto;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes users one at a time to an underlying stream, so that an export never has to hold
+ * more than a single row in memory.
+ */
+public interface UserExportWriter extends Closeable {
+
+    void write(UserDto user) throws IOException;
+
+}
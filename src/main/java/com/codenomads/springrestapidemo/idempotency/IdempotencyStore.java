@@ -0,0 +1,291 @@
+package com.codenomads.springrestapidemo.idempotency;
+
+import com.codenomads.springrestapidemo.configuration.UserIdempotencyProperties;
+import com.codenomads.springrestapidemo.dto.IngestionStatusDto;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.model.IdempotencyRecord;
+import com.codenomads.springrestapidemo.repository.IdempotencyRecordRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs a request at most once per client and {@code Idempotency-Key} and replays its response
+ * to retries. Successful responses are kept in a bounded in-memory cache and, if enabled, in
+ * the {@code idempotency_keys} table, which also claims the key across instances. Duplicates
+ * arriving while the first request is still running wait for its outcome: on the same
+ * instance through a shared future, on other instances by polling the table. A key reused
+ * for a different request is rejected with 422, and a failed request leaves the key free
+ * for the next attempt. So does a crashed one, once its claim has expired.
+ */
+@Component
+@EnableConfigurationProperties(UserIdempotencyProperties.class)
+public class IdempotencyStore {
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final String METRIC_PREFIX = "users.idempotency";
+    private static final int MAXIMUM_KEY_LENGTH = 255;
+    private static final Map<String, Class<?>> REPLAYABLE_BODY_TYPES = Map.of(
+            UserDto.class.getSimpleName(), UserDto.class,
+            IngestionStatusDto.class.getSimpleName(), IngestionStatusDto.class);
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final UserIdempotencyProperties properties;
+    private final Cache<String, StoredResponse> responses;
+    private final Map<String, CompletableFuture<StoredResponse>> running = new ConcurrentHashMap<>();
+    private final Counter replayed;
+
+    public IdempotencyStore(IdempotencyRecordRepository idempotencyRecordRepository,
+                            PlatformTransactionManager transactionManager,
+                            ObjectMapper objectMapper,
+                            UserIdempotencyProperties properties,
+                            MeterRegistry meterRegistry) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        // Not read-only: a claim must be seen on the primary, a replica may not have it yet.
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .build();
+        this.replayed = meterRegistry.counter(METRIC_PREFIX + ".replayed");
+        meterRegistry.gauge(METRIC_PREFIX + ".running", running, Map::size);
+    }
+
+    public ResponseEntity<?> execute(String caller, String key, Object request, Supplier<ResponseEntity<?>> action) {
+        if (key.isBlank() || key.length() > MAXIMUM_KEY_LENGTH) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "The %s must have 1 to %d characters.".formatted(IDEMPOTENCY_KEY_HEADER, MAXIMUM_KEY_LENGTH));
+        }
+        String id = caller + ' ' + key;
+        String fingerprint = fingerprint(request);
+        StoredResponse stored = responses.getIfPresent(id);
+        if (stored != null) {
+            return replay(stored, fingerprint);
+        }
+        CompletableFuture<StoredResponse> own = new CompletableFuture<>();
+        CompletableFuture<StoredResponse> first = running.putIfAbsent(id, own);
+        if (first != null) {
+            return replay(await(first), fingerprint);
+        }
+        try {
+            StoredResponse response = executeOnce(id, fingerprint, action);
+            responses.put(id, response);
+            own.complete(response);
+            return response.replayed()
+                    ? replay(response, fingerprint)
+                    : response.toResponseEntity();
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(id, own);
+        }
+    }
+
+    /**
+     * Drops the in-memory tier, so that retries are answered from the table.
+     */
+    public void invalidateAll() {
+        responses.invalidateAll();
+    }
+
+    @Scheduled(fixedDelayString = "${users.idempotency.purge-interval:PT1H}",
+            initialDelayString = "${users.idempotency.purge-interval:PT1H}")
+    public void purge() {
+        if (properties.isTableEnabled()) {
+            Instant before = Instant.now().minus(properties.getTtl());
+            transactionTemplate.executeWithoutResult(status -> idempotencyRecordRepository.deleteCreatedBefore(before));
+        }
+    }
+
+    private StoredResponse executeOnce(String id, String fingerprint, Supplier<ResponseEntity<?>> action) {
+        if (!properties.isTableEnabled()) {
+            return run(action, fingerprint);
+        }
+        long deadline = System.nanoTime() + properties.getWaitTimeout().toNanos();
+        while (true) {
+            // Truncated to what the table stores, so that the claim can be recognized by it.
+            Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+            Instant claimedUntil = now.plus(properties.getClaimTimeout());
+            if (Boolean.TRUE.equals(transactionTemplate.execute(status ->
+                    idempotencyRecordRepository.claim(id, fingerprint, now, claimedUntil)))) {
+                return runClaimed(id, claimedUntil, fingerprint, action);
+            }
+            Optional<IdempotencyRecord> record = transactionTemplate.execute(status ->
+                    idempotencyRecordRepository.findById(id));
+            if (record.isPresent() && !record.get().getFingerprint().equals(fingerprint)) {
+                throw createKeyReusedException();
+            }
+            if (record.isPresent() && record.get().getStatus() != null) {
+                return fromRecord(record.get());
+            }
+            if (System.nanoTime() > deadline) {
+                throw createStillRunningException();
+            }
+            sleep();
+        }
+    }
+
+    /**
+     * Releases or completes the record only while it still holds this claim, which a retry
+     * may have taken over after it expired.
+     */
+    private StoredResponse runClaimed(String id,
+                                      Instant claimedUntil,
+                                      String fingerprint,
+                                      Supplier<ResponseEntity<?>> action) {
+        StoredResponse response;
+        try {
+            response = run(action, fingerprint);
+        } catch (RuntimeException e) {
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        idempotencyRecordRepository.deletePending(id, claimedUntil));
+            } catch (RuntimeException releaseFailure) {
+                e.addSuppressed(releaseFailure);
+            }
+            throw e;
+        }
+        transactionTemplate.executeWithoutResult(status -> idempotencyRecordRepository.findById(id)
+                .filter(record -> record.getStatus() == null && claimedUntil.equals(record.getClaimedUntil()))
+                .ifPresent(record -> complete(record, response)));
+        return response;
+    }
+
+    private StoredResponse run(Supplier<ResponseEntity<?>> action, String fingerprint) {
+        ResponseEntity<?> entity = action.get();
+        URI location = entity.getHeaders().getLocation();
+        return new StoredResponse(entity.getStatusCodeValue(), location == null ? null : location.toString(),
+                entity.getBody(), fingerprint, false);
+    }
+
+    private void complete(IdempotencyRecord record, StoredResponse response) {
+        Object body = response.body();
+        record.setStatus(response.status());
+        record.setLocation(response.location());
+        if (body != null && REPLAYABLE_BODY_TYPES.containsValue(body.getClass())) {
+            record.setBodyType(body.getClass().getSimpleName());
+            record.setBody(toJson(body));
+        }
+    }
+
+    private StoredResponse fromRecord(IdempotencyRecord record) {
+        Class<?> bodyType = record.getBodyType() == null ? null : REPLAYABLE_BODY_TYPES.get(record.getBodyType());
+        Object body = bodyType == null ? null : fromJson(record.getBody(), bodyType);
+        return new StoredResponse(record.getStatus(), record.getLocation(), body, record.getFingerprint(), true);
+    }
+
+    private StoredResponse await(CompletableFuture<StoredResponse> first) {
+        try {
+            return first.get(properties.getWaitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw createStillRunningException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw createStillRunningException();
+        }
+    }
+
+    private ResponseEntity<?> replay(StoredResponse response, String fingerprint) {
+        if (!response.fingerprint().equals(fingerprint)) {
+            throw createKeyReusedException();
+        }
+        replayed.increment();
+        return ResponseEntity.status(response.status())
+                .header(REPLAYED_HEADER, "true")
+                .headers(headers -> Optional.ofNullable(response.location()).map(URI::create).ifPresent(headers::setLocation))
+                .body(response.body());
+    }
+
+    private String fingerprint(Object request) {
+        return DigestUtils.md5DigestAsHex(toJson(request).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T fromJson(String json, Class<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(properties.getPollInterval().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw createStillRunningException();
+        }
+    }
+
+    private static ResponseStatusException createKeyReusedException() {
+        return new ResponseStatusException(
+                HttpStatus.UNPROCESSABLE_ENTITY,
+                "The %s has already been used for a different request.".formatted(IDEMPOTENCY_KEY_HEADER));
+    }
+
+    private static ResponseStatusException createStillRunningException() {
+        return new ResponseStatusException(
+                HttpStatus.CONFLICT,
+                "A request with this %s is still being processed.".formatted(IDEMPOTENCY_KEY_HEADER));
+    }
+
+    /**
+     * A response as first sent, or as read back from the table, in which case it is replayed
+     * even to the request that read it.
+     */
+    private record StoredResponse(int status, String location, Object body, String fingerprint, boolean replayed) {
+
+        ResponseEntity<?> toResponseEntity() {
+            return ResponseEntity.status(status)
+                    .headers(headers -> Optional.ofNullable(location).map(URI::create).ifPresent(headers::setLocation))
+                    .body(body);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.codenomads.springrestapidemo.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * The response to the first request sent with an idempotency key, shared by all instances.
+ * The record is created without a status when the request starts, which claims the key until
+ * {@code claimedUntil}, and completed with the response once it has succeeded. A claim left
+ * behind by a crashed instance can be taken over once it has expired.
+ */
+@Entity
+@Table(name = "idempotency_keys", indexes = @Index(name = "idempotency_keys_created_at_idx", columnList = "createdAt"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IdempotencyRecord {
+
+    @Id
+    @Column(length = 512)
+    private String id;
+    @Column(nullable = false, length = 32)
+    private String fingerprint;
+    private Integer status;
+    @Column(length = 2048)
+    private String location;
+    @Column(length = 64)
+    private String bodyType;
+    @Column(length = 8192)
+    private String body;
+    @Column(nullable = false)
+    private Instant createdAt;
+    private Instant claimedUntil;
+
+}
@@ -1,18 +1,35 @@
 package com.codenomads.springrestapidemo.model;
 
 
+import com.codenomads.springrestapidemo.cache.UserEmailFilterListener;
+import com.codenomads.springrestapidemo.model.UserGroupSequenceProvider.Unvalidated;
+import com.codenomads.springrestapidemo.validation.EmailAddress;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.UpdateTimestamp;
+import org.hibernate.validator.group.GroupSequenceProvider;
 import org.springframework.format.annotation.DateTimeFormat;
 
 import javax.persistence.*;
-import javax.validation.constraints.Email;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.Size;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.UUID;
 
+import static com.codenomads.springrestapidemo.configuration.SecondLevelCacheConfiguration.USER_NATURAL_ID_REGION;
+import static com.codenomads.springrestapidemo.configuration.SecondLevelCacheConfiguration.USER_REGION;
+
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = @Index(name = "users_birth_date_idx", columnList = "birthDate"))
+@EntityListeners(UserEmailFilterListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = USER_REGION)
+@NaturalIdCache(region = USER_NATURAL_ID_REGION)
+@GroupSequenceProvider(UserGroupSequenceProvider.class)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -24,13 +41,20 @@ public class User {
     @GeneratedValue
     private UUID id;
 
-    @Size(min = 3, max = 30)
+    @Size(min = 3, max = 30, groups = Unvalidated.class)
     private String name;
-    @NotEmpty
-    @Email(regexp = "^[\\w-\\.]+@([\\w-]+\\.)+[\\w-]{2,4}$")
-    @Column(unique = true)
+    @NotEmpty(groups = Unvalidated.class)
+    @EmailAddress(groups = Unvalidated.class)
+    @NaturalId
     private String email;
     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
     private LocalDate birthDate;
 
+    @Version
+    private Long version;
+    @UpdateTimestamp
+    private Instant lastModified;
+    @Transient
+    private boolean validated;
+
 }
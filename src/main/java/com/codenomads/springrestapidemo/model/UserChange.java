@@ -0,0 +1,49 @@
+package com.codenomads.springrestapidemo.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Outbox entry for one change of a user, written in the same transaction as the change
+ * itself. The id is the offset of the change in the feed. Deletions only carry the email.
+ * A change committed after the feed had moved past its offset carries the highest offset
+ * streamed before it as {@code lateAfter}.
+ */
+@Entity
+@Table(name = "user_changes", indexes = {
+        @Index(name = "user_changes_occurred_at_idx", columnList = "occurredAt"),
+        @Index(name = "user_changes_late_after_idx", columnList = "lateAfter")})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserChange {
+
+    public static final String SEQUENCE = "user_changes_seq";
+
+    /*
+     * Ids are drawn one at a time from the sequence, never pre-allocated in blocks, so that
+     * they are handed out in the order in which transactions write their changes.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = SEQUENCE)
+    @SequenceGenerator(name = SEQUENCE, sequenceName = SEQUENCE, allocationSize = 1)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private UserChangeType type;
+    @Column(nullable = false)
+    private String email;
+    private String name;
+    private LocalDate birthDate;
+    private Long version;
+    @Column(nullable = false)
+    private Instant occurredAt;
+    private Long lateAfter;
+
+}
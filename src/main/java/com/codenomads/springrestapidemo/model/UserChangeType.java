@@ -0,0 +1,7 @@
+package com.codenomads.springrestapidemo.model;
+
+public enum UserChangeType {
+    CREATED,
+    UPDATED,
+    DELETED
+}
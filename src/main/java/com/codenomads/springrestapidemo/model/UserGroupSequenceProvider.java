@@ -0,0 +1,23 @@
+package com.codenomads.springrestapidemo.model;
+
+import org.hibernate.validator.spi.group.DefaultGroupSequenceProvider;
+
+import java.util.List;
+
+/**
+ * Leaves out the constraints of a user built from an already validated {@code UserDto}, so
+ * that they are not checked a second time when the user is written.
+ */
+public class UserGroupSequenceProvider implements DefaultGroupSequenceProvider<User> {
+
+    public interface Unvalidated {
+    }
+
+    @Override
+    public List<Class<?>> getValidationGroups(User user) {
+        if (user != null && user.isValidated()) {
+            return List.of(User.class);
+        }
+        return List.of(User.class, Unvalidated.class);
+    }
+}
@@ -0,0 +1,36 @@
+package com.codenomads.springrestapidemo.model;
+
+import com.codenomads.springrestapidemo.dto.IngestionStatus;
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Outcome of a user submitted for ingestion, shared by all instances, so that it can be
+ * polled through any of them. Written by the writer in the transaction that inserts the
+ * user, or once the user has failed.
+ */
+@Entity
+@Table(name = "user_ingestions", indexes = @Index(name = "user_ingestions_updated_at_idx", columnList = "updatedAt"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserIngestion {
+
+    @Id
+    private UUID trackingId;
+    @Column(nullable = false)
+    private String email;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private IngestionStatus status;
+    @Column(length = 2048)
+    private String error;
+    @Column(nullable = false)
+    private Instant updatedAt;
+
+}
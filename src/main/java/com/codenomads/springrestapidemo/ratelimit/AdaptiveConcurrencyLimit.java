@@ -0,0 +1,77 @@
+package com.codenomads.springrestapidemo.ratelimit;
+
+import com.codenomads.springrestapidemo.configuration.UserRateLimitProperties;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Limits the requests in flight to a limit that follows the measured latency: additive
+ * increase while requests complete within the threshold, multiplicative decrease when they
+ * do not. The limit is kept as the bits of a double so that it can be updated without a lock.
+ */
+class AdaptiveConcurrencyLimit {
+
+    private final int minimumLimit;
+    private final int maximumLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limit;
+    private final AtomicLong lastDecrease;
+
+    AdaptiveConcurrencyLimit(UserRateLimitProperties.Concurrency properties, long now) {
+        this.minimumLimit = properties.getMinimumLimit();
+        this.maximumLimit = properties.getMaximumLimit();
+        this.latencyThresholdNanos = properties.getLatencyThreshold().toNanos();
+        this.backoffRatio = properties.getBackoffRatio();
+        this.limit = new AtomicLong(Double.doubleToRawLongBits(properties.getInitialLimit()));
+        this.lastDecrease = new AtomicLong(now - latencyThresholdNanos);
+    }
+
+    boolean tryAcquire() {
+        int limit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a permit without adjusting the limit, for requests whose duration says
+     * nothing about the load, such as streams.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    void release(long latencyNanos, long now) {
+        int current = inFlight.getAndDecrement();
+        if (latencyNanos > latencyThresholdNanos) {
+            long last = lastDecrease.get();
+            if (now - last >= latencyThresholdNanos && lastDecrease.compareAndSet(last, now)) {
+                update(limit -> Math.max(minimumLimit, limit * backoffRatio));
+            }
+        } else if (current * 2 >= getLimit()) {
+            update(limit -> Math.min(maximumLimit, limit + 1 / limit));
+        }
+    }
+
+    int getLimit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void update(DoubleUnaryOperator function) {
+        limit.updateAndGet(bits -> Double.doubleToRawLongBits(function.applyAsDouble(Double.longBitsToDouble(bits))));
+    }
+}
@@ -0,0 +1,170 @@
+package com.codenomads.springrestapidemo.ratelimit;
+
+import com.codenomads.springrestapidemo.configuration.UserRateLimitProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sheds load before it reaches the database. Each client has a token bucket per limit and
+ * gets a 429 when it runs empty. Clients are identified by their authenticated principal or
+ * else their remote address, never by a header they set themselves, which would give them a
+ * fresh bucket per request. The remote address is only taken from {@code X-Forwarded-For}
+ * when the request came through one of the proxies trusted by
+ * {@code server.tomcat.remoteip.internal-proxies}, which is none by default.
+ * <p>
+ * All clients share an adaptive concurrency limit and get a 503 when it is reached or when
+ * too many threads are already waiting for a database connection. Both answers carry
+ * {@code Retry-After}.
+ */
+@Component
+@ConditionalOnProperty(name = "users.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(UserRateLimitProperties.class)
+public class RateLimitInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String METRIC_PREFIX = "users.rate-limit";
+    private static final String PENDING_CONNECTIONS_GAUGE = "hikaricp.connections.pending";
+    private static final String STARTED_ATTRIBUTE = RateLimitInterceptor.class.getName() + ".started";
+    private static final String READS = "reads";
+    private static final String WRITES = "writes";
+
+    private final UserRateLimitProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, TokenBucket> buckets;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private volatile Collection<Gauge> pendingConnections = List.of();
+
+    public RateLimitInterceptor(UserRateLimitProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumClients())
+                .expireAfterAccess(properties.getClientIdleTimeout())
+                .build();
+        this.concurrencyLimit = new AdaptiveConcurrencyLimit(properties.getConcurrency(), System.nanoTime());
+        meterRegistry.gauge(METRIC_PREFIX + ".concurrency.limit", concurrencyLimit, AdaptiveConcurrencyLimit::getLimit);
+        meterRegistry.gauge(METRIC_PREFIX + ".concurrency.in-flight", concurrencyLimit,
+                AdaptiveConcurrencyLimit::getInFlight);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod) || request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        long now = System.nanoTime();
+        String limitName = getLimitName(request, handlerMethod);
+        UserRateLimitProperties.Limit limit = getLimit(limitName);
+        long waitNanos = buckets.get(getClient(request) + ' ' + limitName,
+                        key -> new TokenBucket(limit.getPermitsPerSecond(), limit.getBurst(), now))
+                .tryAcquire(now);
+        if (waitNanos > 0) {
+            throw reject(response, "rate", HttpStatus.TOO_MANY_REQUESTS, waitNanos,
+                    "Too many requests, the limit is %s per second.".formatted(limit.getPermitsPerSecond()));
+        }
+        if (properties.getConcurrency().getExcludedEndpoints().contains(handlerMethod.getMethod().getName())) {
+            return true;
+        }
+        if (getPendingConnections() > properties.getConcurrency().getMaximumPendingConnections()
+                || !concurrencyLimit.tryAcquire()) {
+            throw reject(response, "concurrency", HttpStatus.SERVICE_UNAVAILABLE,
+                    properties.getConcurrency().getRetryAfter().toNanos(),
+                    "The service is overloaded, please retry later.");
+        }
+        request.setAttribute(STARTED_ATTRIBUTE, now);
+        return true;
+    }
+
+    /**
+     * A streaming response holds its permit only until the handler has returned.
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request,
+                                               HttpServletResponse response,
+                                               Object handler) {
+        if (request.getAttribute(STARTED_ATTRIBUTE) != null) {
+            request.removeAttribute(STARTED_ATTRIBUTE);
+            concurrencyLimit.release();
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request,
+                                HttpServletResponse response,
+                                Object handler,
+                                Exception ex) {
+        if (request.getAttribute(STARTED_ATTRIBUTE) instanceof Long started) {
+            request.removeAttribute(STARTED_ATTRIBUTE);
+            long now = System.nanoTime();
+            concurrencyLimit.release(now - started, now);
+        }
+    }
+
+    private static String getClient(HttpServletRequest request) {
+        Principal principal = request.getUserPrincipal();
+        return principal == null ? request.getRemoteAddr() : principal.getName();
+    }
+
+    private String getLimitName(HttpServletRequest request, HandlerMethod handlerMethod) {
+        String name = handlerMethod.getMethod().getName();
+        if (properties.getEndpoints().containsKey(name)) {
+            return name;
+        }
+        HttpMethod method = HttpMethod.resolve(request.getMethod());
+        return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS ? READS : WRITES;
+    }
+
+    private UserRateLimitProperties.Limit getLimit(String name) {
+        return switch (name) {
+            case READS -> properties.getReads();
+            case WRITES -> properties.getWrites();
+            default -> properties.getEndpoints().get(name);
+        };
+    }
+
+    /**
+     * The pools register their gauges once they have started, until then they are looked up
+     * again on every request.
+     */
+    private double getPendingConnections() {
+        Collection<Gauge> gauges = pendingConnections;
+        if (gauges.isEmpty()) {
+            gauges = meterRegistry.find(PENDING_CONNECTIONS_GAUGE).gauges();
+            pendingConnections = gauges;
+        }
+        double pending = 0;
+        for (Gauge gauge : gauges) {
+            pending += gauge.value();
+        }
+        return pending;
+    }
+
+    private ResponseStatusException reject(HttpServletResponse response,
+                                           String reason,
+                                           HttpStatus status,
+                                           long retryAfterNanos,
+                                           String message) {
+        meterRegistry.counter(METRIC_PREFIX + ".rejected", "reason", reason).increment();
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos + 999_999_999));
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return new ResponseStatusException(status, message);
+    }
+}
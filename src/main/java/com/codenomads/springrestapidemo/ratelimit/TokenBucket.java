@@ -0,0 +1,38 @@
+package com.codenomads.springrestapidemo.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as the single time at which it will be full again, so that taking a
+ * token is one compare-and-set without a lock. A token is available while that time is less
+ * than a full bucket's refill time ahead.
+ */
+class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long capacityNanos;
+    private final AtomicLong fullAt;
+
+    TokenBucket(double permitsPerSecond, int burst, long now) {
+        this.nanosPerToken = Math.max(1, (long) (1_000_000_000 / permitsPerSecond));
+        this.capacityNanos = nanosPerToken * Math.max(1, burst);
+        this.fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * Takes a token and returns 0, or returns the nanoseconds until one is available.
+     */
+    long tryAcquire(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + nanosPerToken;
+            long wait = next - capacityNanos - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.codenomads.springrestapidemo.repository;
+
+import com.codenomads.springrestapidemo.model.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String>, IdempotencyRecordRepositoryCustom {
+
+    @Modifying
+    @Query("delete from IdempotencyRecord r where r.id = :id and r.status is null and r.claimedUntil = :claimedUntil")
+    int deletePending(@Param("id") String id, @Param("claimedUntil") Instant claimedUntil);
+
+    @Modifying
+    @Query("delete from IdempotencyRecord r where r.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") Instant before);
+}
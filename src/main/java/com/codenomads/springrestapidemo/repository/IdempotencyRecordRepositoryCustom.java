@@ -0,0 +1,13 @@
+package com.codenomads.springrestapidemo.repository;
+
+import java.time.Instant;
+
+public interface IdempotencyRecordRepositoryCustom {
+
+    /**
+     * Creates a pending record for the key, or takes over a pending one whose claim expired
+     * before {@code createdAt}, and reports whether it did. Never fails on a duplicate key,
+     * not even under concurrent claims.
+     */
+    boolean claim(String id, String fingerprint, Instant createdAt, Instant claimedUntil);
+}
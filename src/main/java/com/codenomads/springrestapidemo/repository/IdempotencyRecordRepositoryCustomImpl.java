@@ -0,0 +1,33 @@
+package com.codenomads.springrestapidemo.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.InstantType;
+import org.hibernate.type.StringType;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+
+@RequiredArgsConstructor
+public class IdempotencyRecordRepositoryCustomImpl implements IdempotencyRecordRepositoryCustom {
+
+    private static final String CLAIM = """
+            INSERT INTO idempotency_keys (id, fingerprint, created_at, claimed_until)
+            VALUES (:id, :fingerprint, :createdAt, :claimedUntil)
+            ON CONFLICT (id) DO UPDATE
+            SET fingerprint = excluded.fingerprint, created_at = excluded.created_at, claimed_until = excluded.claimed_until
+            WHERE idempotency_keys.status IS NULL AND idempotency_keys.claimed_until < excluded.created_at""";
+
+    private final EntityManager entityManager;
+
+    @Override
+    public boolean claim(String id, String fingerprint, Instant createdAt, Instant claimedUntil) {
+        return entityManager.createNativeQuery(CLAIM)
+                .unwrap(NativeQuery.class)
+                .setParameter("id", id, StringType.INSTANCE)
+                .setParameter("fingerprint", fingerprint, StringType.INSTANCE)
+                .setParameter("createdAt", createdAt, InstantType.INSTANCE)
+                .setParameter("claimedUntil", claimedUntil, InstantType.INSTANCE)
+                .executeUpdate() == 1;
+    }
+}
@@ -0,0 +1,50 @@
+package com.codenomads.springrestapidemo.repository;
+
+import com.codenomads.springrestapidemo.model.UserChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UserChangeRepository extends JpaRepository<UserChange, Long>, UserChangeRepositoryCustom {
+
+    @Query("select c from UserChange c where c.id > :after and c.id <= :upTo order by c.id")
+    List<UserChange> findBetween(@Param("after") long after, @Param("upTo") long upTo, Pageable pageable);
+
+    List<UserChange> findByIdInOrderByIdAsc(Collection<Long> ids);
+
+    /**
+     * Finds the changes below the offset that were streamed late, after it.
+     */
+    @Query("select c from UserChange c where c.id < :offset and c.lateAfter >= :offset order by c.id")
+    List<UserChange> findLateAfter(@Param("offset") long offset);
+
+    /**
+     * Marks changes as streamed late, after the given offset, unless another instance has
+     * already streamed them after a higher one.
+     */
+    @Modifying
+    @Query("update UserChange c set c.lateAfter = :offset"
+            + " where c.id in :ids and (c.lateAfter is null or c.lateAfter < :offset)")
+    int markLate(@Param("ids") Collection<Long> ids, @Param("offset") long offset);
+
+    Optional<UserChange> findFirstByOrderByIdAsc();
+
+    @Query("select max(c.id) from UserChange c")
+    Optional<Long> findLastId();
+
+    @Query("select max(c.id) from UserChange c where c.occurredAt < :before")
+    Optional<Long> findLastIdBefore(@Param("before") Instant before);
+
+    @Modifying
+    @Query("delete from UserChange c where c.id < :id")
+    int deleteByIdLessThan(@Param("id") long id);
+}
@@ -0,0 +1,15 @@
+package com.codenomads.springrestapidemo.repository;
+
+import com.codenomads.springrestapidemo.model.UserChange;
+
+import java.util.List;
+
+public interface UserChangeRepositoryCustom {
+
+    /**
+     * Inserts all changes with multi-row statements, drawing their ids from the sequence in
+     * the database instead of one round trip per change.
+     */
+    void insertAll(List<UserChange> changes);
+
+}
@@ -0,0 +1,54 @@
+package com.codenomads.springrestapidemo.repository;
+
+import com.codenomads.springrestapidemo.model.UserChange;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.InstantType;
+import org.hibernate.type.LocalDateType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.StringType;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class UserChangeRepositoryCustomImpl implements UserChangeRepositoryCustom {
+
+    private static final String INSERT_ALL = """
+            INSERT INTO user_changes (id, type, email, name, birth_date, version, occurred_at)
+            VALUES %s""";
+
+    private static final int MAXIMUM_ROWS_PER_STATEMENT = 1_000;
+
+    private final EntityManager entityManager;
+
+    @Override
+    public void insertAll(List<UserChange> changes) {
+        for (int from = 0; from < changes.size(); from += MAXIMUM_ROWS_PER_STATEMENT) {
+            insert(changes.subList(from, Math.min(from + MAXIMUM_ROWS_PER_STATEMENT, changes.size())));
+        }
+    }
+
+    private void insert(List<UserChange> changes) {
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < changes.size(); i++) {
+            rows.append(i == 0 ? "" : ", ")
+                    .append("(nextval('%2$s'), :type%1$d, :email%1$d, :name%1$d, :birthDate%1$d, :version%1$d, :occurredAt%1$d)"
+                            .formatted(i, UserChange.SEQUENCE));
+        }
+        // Without it, Hibernate evicts every second-level cache region after the statement.
+        NativeQuery<?> query = entityManager.createNativeQuery(INSERT_ALL.formatted(rows))
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(UserChange.class);
+        for (int i = 0; i < changes.size(); i++) {
+            UserChange change = changes.get(i);
+            query.setParameter("type" + i, change.getType().name(), StringType.INSTANCE)
+                    .setParameter("email" + i, change.getEmail(), StringType.INSTANCE)
+                    .setParameter("name" + i, change.getName(), StringType.INSTANCE)
+                    .setParameter("birthDate" + i, change.getBirthDate(), LocalDateType.INSTANCE)
+                    .setParameter("version" + i, change.getVersion(), LongType.INSTANCE)
+                    .setParameter("occurredAt" + i, change.getOccurredAt(), InstantType.INSTANCE);
+        }
+        query.executeUpdate();
+    }
+}
@@ -0,0 +1,19 @@
+package com.codenomads.springrestapidemo.repository;
+
+import com.codenomads.springrestapidemo.model.UserIngestion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Repository
+public interface UserIngestionRepository extends JpaRepository<UserIngestion, UUID> {
+
+    @Modifying
+    @Query("delete from UserIngestion i where i.updatedAt < :before")
+    int deleteUpdatedBefore(@Param("before") Instant before);
+}
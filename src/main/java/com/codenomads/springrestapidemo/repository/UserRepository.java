@@ -1,13 +1,70 @@
 package com.codenomads.springrestapidemo.repository;
 
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.dto.VersionedUserDto;
 import com.codenomads.springrestapidemo.model.User;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, UUID> {
-    Optional<User> findByEmail(String email);
+public interface UserRepository extends JpaRepository<User, UUID>, UserRepositoryCustom {
+
+    String SELECT_USER_DTO = "select new com.codenomads.springrestapidemo.dto.UserDto(u.name, u.email, u.birthDate)"
+            + " from User u";
+
+    String SELECT_VERSIONED_USER_DTO = "select new com.codenomads.springrestapidemo.dto.VersionedUserDto("
+            + "u.id, u.version, u.lastModified, u.name, u.email, u.birthDate) from User u";
+
+    List<User> findByEmailIn(Collection<String> emails);
+
+    boolean existsByEmail(String email);
+
+    @Transactional(readOnly = true)
+    Optional<UserVersion> findVersionByEmail(String email);
+
+    @Transactional(readOnly = true)
+    @Query(value = SELECT_VERSIONED_USER_DTO, countQuery = "select count(u) from User u")
+    Page<VersionedUserDto> findAllDtos(Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(SELECT_USER_DTO)
+    Slice<UserDto> findDtoSlice(Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(SELECT_USER_DTO + " where u.email > :email")
+    Slice<UserDto> findDtoSliceAfter(@Param("email") String email, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(SELECT_USER_DTO + " where u.email < :email")
+    Slice<UserDto> findDtoSliceBefore(@Param("email") String email, Pageable pageable);
+
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    Stream<User> streamAllBy();
+
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select u.email from User u")
+    Stream<String> streamAllEmails();
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.codenomads.springrestapidemo.repository;
+
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.model.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+public interface UserRepositoryCustom {
+
+    /**
+     * Loads the user by its natural id. Repeated lookups are answered from the second-level
+     * cache without touching the database. Reads from the primary, even with replicas.
+     */
+    Optional<User> findByEmail(String email);
+
+    /**
+     * Inserts the user or, if the email is already taken, updates name and birth date of the
+     * existing row in a single atomic statement. Returns the row as stored.
+     */
+    User upsertByEmail(User user);
+
+    /**
+     * Updates name and birth date of the row with the given id, but only while it still has
+     * the expected version. Returns the row as stored, or empty if the version has moved on
+     * or the row is gone.
+     */
+    Optional<User> updateIfVersionMatches(UUID id, long expectedVersion, User user);
+
+    /**
+     * Inserts all users, which must already carry their ids, in one multi-row statement.
+     * Users whose email is taken, by an existing row or an earlier user in the same list,
+     * are skipped. Returns the ids of the rows actually inserted.
+     */
+    Set<UUID> insertIgnoringConflicts(List<User> users);
+
+    /**
+     * Deletes the users with the given emails. Returns the emails of the rows actually
+     * deleted.
+     */
+    List<String> deleteByEmailIn(Collection<String> emails);
+
+    /**
+     * Reads the first slice of users matching the specification, in the order and size of
+     * the pageable; its page number is ignored. Meant for keyset paging, where the
+     * specification carries the position.
+     */
+    Slice<UserDto> findDtoSlice(Specification<User> specification, Pageable pageable);
+
+}
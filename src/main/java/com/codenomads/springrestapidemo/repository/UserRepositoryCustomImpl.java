@@ -0,0 +1,150 @@
+package com.codenomads.springrestapidemo.repository;
+
+import com.codenomads.springrestapidemo.datasource.ReadWriteRoutingDataSource;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.model.User;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.InstantType;
+import org.hibernate.type.LocalDateType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.PostgresUUIDType;
+import org.hibernate.type.StringType;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.springframework.data.jpa.repository.query.QueryUtils.toOrders;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    private final EntityManager entityManager;
+    private final UserStatements statements;
+
+    public UserRepositoryCustomImpl(EntityManager entityManager, ObjectProvider<UserStatements> statements) {
+        this.entityManager = entityManager;
+        this.statements = statements.getIfAvailable(() -> UserStatements.POSTGRES);
+    }
+
+    /*
+     * Reads from the primary: what it loads is kept in the user caches, which would otherwise
+     * hold what a lagging replica returned for the full TTL.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<User> findByEmail(String email) {
+        Session session = entityManager.unwrap(Session.class);
+        // Unlike a query, a natural id load does not flush, which would leave the timestamp of a
+        // user saved earlier in the transaction unset.
+        if (session.getHibernateFlushMode() != FlushMode.MANUAL && session.isDirty()) {
+            session.flush();
+        }
+        return ReadWriteRoutingDataSource.readFromPrimary(() ->
+                session.bySimpleNaturalId(User.class).loadOptional(email));
+    }
+
+    @Override
+    public User upsertByEmail(User user) {
+        return (User) createNativeQuery(statements.upsertByEmail(), user)
+                .setParameter("id", UUID.randomUUID(), PostgresUUIDType.INSTANCE)
+                .setParameter("email", user.getEmail(), StringType.INSTANCE)
+                .getSingleResult();
+    }
+
+    @Override
+    public Optional<User> updateIfVersionMatches(UUID id, long expectedVersion, User user) {
+        return createNativeQuery(statements.updateIfVersionMatches(), user)
+                .setParameter("id", id, PostgresUUIDType.INSTANCE)
+                .setParameter("version", expectedVersion, LongType.INSTANCE)
+                .uniqueResultOptional();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<UUID> insertIgnoringConflicts(List<User> users) {
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < users.size(); i++) {
+            rows.append(i == 0 ? "" : ", ")
+                    .append("(:id%1$d, :name%1$d, :email%1$d, :birthDate%1$d, 0, :lastModified)".formatted(i));
+        }
+        NativeQuery<UUID> query = entityManager.createNativeQuery(statements.insertIgnoringConflicts().formatted(rows))
+                .unwrap(NativeQuery.class)
+                .addScalar("id", PostgresUUIDType.INSTANCE)
+                .setParameter("lastModified", Instant.now(), InstantType.INSTANCE);
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            query.setParameter("id" + i, user.getId(), PostgresUUIDType.INSTANCE)
+                    .setParameter("name" + i, user.getName(), StringType.INSTANCE)
+                    .setParameter("email" + i, user.getEmail(), StringType.INSTANCE)
+                    .setParameter("birthDate" + i, user.getBirthDate(), LocalDateType.INSTANCE);
+        }
+        return new HashSet<>(query.getResultList());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> deleteByEmailIn(Collection<String> emails) {
+        detachAll();
+        return entityManager.createNativeQuery(statements.deleteByEmails())
+                .unwrap(NativeQuery.class)
+                .addScalar("email", StringType.INSTANCE)
+                .setParameterList("emails", emails)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<UserDto> findDtoSlice(Specification<User> specification, Pageable pageable) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<UserDto> query = builder.createQuery(UserDto.class);
+        Root<User> root = query.from(User.class);
+        query.select(builder.construct(UserDto.class, root.get("name"), root.get("email"), root.get("birthDate")))
+                .orderBy(toOrders(pageable.getSort(), root, builder));
+        Predicate predicate = specification.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+
+        List<UserDto> content = entityManager.createQuery(query)
+                .setMaxResults(pageable.getPageSize() + 1)
+                .getResultList();
+        boolean hasNext = content.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? content.subList(0, pageable.getPageSize()) : content, pageable, hasNext);
+    }
+
+    @SuppressWarnings("unchecked")
+    private NativeQuery<User> createNativeQuery(String sql, User user) {
+        detachAll();
+        return entityManager.createNativeQuery(sql, User.class)
+                .unwrap(NativeQuery.class)
+                .setParameter("name", user.getName(), StringType.INSTANCE)
+                .setParameter("birthDate", user.getBirthDate(), LocalDateType.INSTANCE)
+                .setParameter("lastModified", Instant.now(), InstantType.INSTANCE);
+    }
+
+    /*
+     * The statements bypass the persistence context, so pending changes are flushed and
+     * managed instances dropped first, the same as a clearing @Modifying query would do.
+     */
+    private void detachAll() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,66 @@
+package com.codenomads.springrestapidemo.repository;
+
+import com.codenomads.springrestapidemo.dto.UserSearchCriteria;
+import com.codenomads.springrestapidemo.model.User;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * Search predicates over users. Name and email match by prefix only, the name ignoring
+ * case, so that each can be answered from its pattern index instead of a full scan.
+ */
+public final class UserSpecifications {
+
+    private static final char LIKE_ESCAPE = '\\';
+
+    private UserSpecifications() {
+    }
+
+    public static Specification<User> matching(UserSearchCriteria criteria) {
+        return Specification.where(nameStartsWith(criteria.getName()))
+                .and(emailStartsWith(criteria.getEmailPrefix()))
+                .and(bornOnOrAfter(criteria.getBirthDateFrom()))
+                .and(bornOnOrBefore(criteria.getBirthDateTo()));
+    }
+
+    public static Specification<User> nameStartsWith(String prefix) {
+        if (prefix == null || prefix.isBlank()) {
+            return null;
+        }
+        return (root, query, builder) -> builder.like(
+                builder.lower(root.get("name")),
+                escapeLike(prefix.toLowerCase(Locale.ROOT)) + "%",
+                LIKE_ESCAPE);
+    }
+
+    public static Specification<User> emailStartsWith(String prefix) {
+        if (prefix == null || prefix.isBlank()) {
+            return null;
+        }
+        return (root, query, builder) -> builder.like(root.get("email"), escapeLike(prefix) + "%", LIKE_ESCAPE);
+    }
+
+    public static Specification<User> bornOnOrAfter(LocalDate date) {
+        return date == null ? null : (root, query, builder) -> builder.greaterThanOrEqualTo(root.get("birthDate"), date);
+    }
+
+    public static Specification<User> bornOnOrBefore(LocalDate date) {
+        return date == null ? null : (root, query, builder) -> builder.lessThanOrEqualTo(root.get("birthDate"), date);
+    }
+
+    public static Specification<User> emailAfter(String email) {
+        return (root, query, builder) -> builder.greaterThan(root.get("email"), email);
+    }
+
+    public static Specification<User> emailBefore(String email) {
+        return (root, query, builder) -> builder.lessThan(root.get("email"), email);
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+    }
+}
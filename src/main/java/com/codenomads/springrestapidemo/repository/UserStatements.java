@@ -0,0 +1,41 @@
+package com.codenomads.springrestapidemo.repository;
+
+/**
+ * The native statements of {@link UserRepositoryCustomImpl}, written for Postgres. A bean of
+ * this type replaces them, for a database that runs the same schema but not the same SQL.
+ * Each statement returns the rows it changed: the users for the upsert and the update, their
+ * ids for the insert, which takes its rows as {@code %s}, and their emails for the delete.
+ */
+public record UserStatements(String upsertByEmail,
+                             String updateIfVersionMatches,
+                             String insertIgnoringConflicts,
+                             String deleteByEmails) {
+
+    public static final UserStatements POSTGRES = new UserStatements(
+            """
+            INSERT INTO users (id, name, email, birth_date, version, last_modified)
+            VALUES (:id, :name, :email, :birthDate, 0, :lastModified)
+            ON CONFLICT (email) DO UPDATE
+                SET name = EXCLUDED.name,
+                    birth_date = EXCLUDED.birth_date,
+                    version = users.version + 1,
+                    last_modified = EXCLUDED.last_modified
+            RETURNING *""",
+            """
+            UPDATE users
+                SET name = :name,
+                    birth_date = :birthDate,
+                    version = version + 1,
+                    last_modified = :lastModified
+            WHERE id = :id AND version = :version
+            RETURNING *""",
+            """
+            INSERT INTO users (id, name, email, birth_date, version, last_modified)
+            VALUES %s
+            ON CONFLICT (email) DO NOTHING
+            RETURNING id""",
+            """
+            DELETE FROM users
+            WHERE email IN (:emails)
+            RETURNING email""");
+}
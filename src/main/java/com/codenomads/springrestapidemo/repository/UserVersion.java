@@ -0,0 +1,11 @@
+package com.codenomads.springrestapidemo.repository;
+
+import java.util.UUID;
+
+public interface UserVersion {
+
+    UUID getId();
+
+    Long getVersion();
+
+}
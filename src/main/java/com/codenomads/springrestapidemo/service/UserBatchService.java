@@ -0,0 +1,207 @@
+package com.codenomads.springrestapidemo.service;
+
+import com.codenomads.springrestapidemo.cache.UserCache;
+import com.codenomads.springrestapidemo.cache.UserEmailFilter;
+import com.codenomads.springrestapidemo.configuration.UserBatchProperties;
+import com.codenomads.springrestapidemo.dto.BatchItemResultDto;
+import com.codenomads.springrestapidemo.dto.BatchItemStatus;
+import com.codenomads.springrestapidemo.dto.BatchResultDto;
+import com.codenomads.springrestapidemo.dto.BulkDeleteResultDto;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.dto.UserDtoMapper;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.model.UserChangeType;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import io.micrometer.core.annotation.Timed;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.persistence.EntityManager;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.codenomads.springrestapidemo.configuration.MetricsConfiguration.SERVICE_TIMER;
+
+/**
+ * Writes large lists of users in chunks, one transaction per chunk, relying on Hibernate's
+ * JDBC batching for the inserts and updates. A failing item never fails the whole batch:
+ * if a chunk cannot be written, its items are retried one by one to isolate the culprit.
+ */
+@Service
+@RequiredArgsConstructor
+@EnableConfigurationProperties(UserBatchProperties.class)
+public class UserBatchService {
+
+    private final UserRepository userRepository;
+    private final UserDtoMapper userDtoMapper;
+    private final UserCache userCache;
+    private final UserEmailFilter userEmailFilter;
+    private final UserChangeOutbox userChangeOutbox;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final UserBatchProperties properties;
+
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public BatchResultDto createUsers(List<UserDto> userDtos) {
+        return process(userDtos, false);
+    }
+
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public BatchResultDto createOrUpdateUsers(List<UserDto> userDtos) {
+        return process(userDtos, true);
+    }
+
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public BulkDeleteResultDto deleteUsers(List<String> emails) {
+        checkBatchSize(emails.size());
+
+        List<String> distinctEmails = emails.stream()
+                .distinct()
+                .toList();
+        int chunkSize = properties.getChunkSize();
+        int deleted = 0;
+        for (int from = 0; from < distinctEmails.size(); from += chunkSize) {
+            List<String> chunk = distinctEmails.subList(from, Math.min(from + chunkSize, distinctEmails.size()));
+            deleted += transactionTemplate.execute(status -> {
+                chunk.forEach(userCache::invalidateNativeWriteAfterCompletion);
+                List<String> deletedEmails = userRepository.deleteByEmailIn(chunk);
+                userChangeOutbox.recordDeleted(deletedEmails);
+                return deletedEmails.size();
+            });
+        }
+        return new BulkDeleteResultDto(distinctEmails.size(), deleted);
+    }
+
+    private BatchResultDto process(List<UserDto> userDtos, boolean updateExisting) {
+        checkBatchSize(userDtos.size());
+
+        BatchItemResultDto[] results = new BatchItemResultDto[userDtos.size()];
+        List<Integer> validIndexes = validate(userDtos, results);
+
+        int chunkSize = properties.getChunkSize();
+        for (int from = 0; from < validIndexes.size(); from += chunkSize) {
+            List<Integer> chunk = validIndexes.subList(from, Math.min(from + chunkSize, validIndexes.size()));
+            try {
+                writeInTransaction(userDtos, chunk, updateExisting, true, results);
+            } catch (DataAccessException e) {
+                chunk.forEach(index -> writeSingle(userDtos, index, updateExisting, results));
+            }
+        }
+        return BatchResultDto.of(Arrays.asList(results));
+    }
+
+    private void checkBatchSize(int size) {
+        if (size > properties.getMaximumItems()) {
+            throw new ResponseStatusException(
+                    HttpStatus.PAYLOAD_TOO_LARGE,
+                    "A batch may contain at most %d users.".formatted(properties.getMaximumItems()));
+        }
+    }
+
+    private List<Integer> validate(List<UserDto> userDtos, BatchItemResultDto[] results) {
+        List<Integer> validIndexes = new ArrayList<>(userDtos.size());
+        Set<String> emails = new HashSet<>();
+        for (int index = 0; index < userDtos.size(); index++) {
+            UserDto userDto = userDtos.get(index);
+            Set<ConstraintViolation<UserDto>> violations = validator.validate(userDto);
+            if (!violations.isEmpty()) {
+                results[index] = BatchItemResultDto.failed(index, userDto.getEmail(), describe(violations));
+            } else if (!emails.add(userDto.getEmail())) {
+                results[index] = BatchItemResultDto.failed(index, userDto.getEmail(), "Duplicate email in batch.");
+            } else {
+                validIndexes.add(index);
+            }
+        }
+        return validIndexes;
+    }
+
+    /**
+     * Does not trust the email filter, which may not yet know a user just created by another
+     * instance and thereby have failed the chunk.
+     */
+    private void writeSingle(List<UserDto> userDtos, int index, boolean updateExisting, BatchItemResultDto[] results) {
+        try {
+            writeInTransaction(userDtos, List.of(index), updateExisting, false, results);
+        } catch (DataAccessException e) {
+            results[index] = BatchItemResultDto.failed(index, userDtos.get(index).getEmail(),
+                    e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    private void writeInTransaction(List<UserDto> userDtos,
+                                    List<Integer> chunk,
+                                    boolean updateExisting,
+                                    boolean useEmailFilter,
+                                    BatchItemResultDto[] results) {
+        try {
+            transactionTemplate.executeWithoutResult(
+                    status -> writeChunk(userDtos, chunk, updateExisting, useEmailFilter, results));
+        } finally {
+            entityManager.clear();
+        }
+    }
+
+    private void writeChunk(List<UserDto> userDtos,
+                            List<Integer> chunk,
+                            boolean updateExisting,
+                            boolean useEmailFilter,
+                            BatchItemResultDto[] results) {
+        List<String> emails = chunk.stream()
+                .map(index -> userDtos.get(index).getEmail())
+                .filter(email -> !useEmailFilter || !userEmailFilter.isDefinitelyAbsent(email))
+                .toList();
+        Map<String, User> existingUsers = emails.isEmpty()
+                ? Map.of()
+                : userRepository.findByEmailIn(emails).stream()
+                        .collect(Collectors.toMap(User::getEmail, Function.identity()));
+
+        List<User> usersToInsert = new ArrayList<>(chunk.size());
+        List<User> usersToUpdate = new ArrayList<>(chunk.size());
+        for (int index : chunk) {
+            UserDto userDto = userDtos.get(index);
+            User existingUser = existingUsers.get(userDto.getEmail());
+            if (existingUser == null) {
+                usersToInsert.add(userDtoMapper.toUser(userDto));
+                results[index] = BatchItemResultDto.succeeded(index, userDto.getEmail(), BatchItemStatus.CREATED);
+            } else if (updateExisting) {
+                existingUser.setName(userDto.getName());
+                existingUser.setBirthDate(userDto.getBirthDate());
+                existingUser.setValidated(true);
+                usersToUpdate.add(existingUser);
+                results[index] = BatchItemResultDto.succeeded(index, userDto.getEmail(), BatchItemStatus.UPDATED);
+            } else {
+                results[index] = BatchItemResultDto.failed(index, userDto.getEmail(), "User already exists.");
+            }
+            if (existingUser == null) {
+                userCache.invalidateAfterCompletion(userDto.getEmail());
+            } else {
+                userCache.invalidateAfterCompletion(existingUser);
+            }
+        }
+        userRepository.saveAll(usersToInsert);
+        userRepository.flush();
+        userChangeOutbox.recordAll(UserChangeType.CREATED, usersToInsert);
+        userChangeOutbox.recordAll(UserChangeType.UPDATED, usersToUpdate);
+    }
+
+    private static String describe(Set<ConstraintViolation<UserDto>> violations) {
+        return violations.stream()
+                .map(violation -> "%s %s".formatted(violation.getPropertyPath(), violation.getMessage()))
+                .sorted()
+                .collect(Collectors.joining("; "));
+    }
+}
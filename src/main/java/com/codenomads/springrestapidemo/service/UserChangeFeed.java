@@ -0,0 +1,405 @@
+package com.codenomads.springrestapidemo.service;
+
+import com.codenomads.springrestapidemo.configuration.UserChangeFeedProperties;
+import com.codenomads.springrestapidemo.dto.UserChangeDto;
+import com.codenomads.springrestapidemo.model.UserChange;
+import com.codenomads.springrestapidemo.repository.UserChangeRepository;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.codenomads.springrestapidemo.configuration.MetricsConfiguration.SERVICE_TIMER;
+
+/**
+ * Streams the changes recorded by {@link UserChangeOutbox} as server-sent events, each with
+ * its offset as event id. A subscriber starts after a given offset, or at the current end of
+ * the feed, and first receives a {@code POSITION} event with the offset it starts after.
+ * A replica is kept warm by subscribing, copying the users, and then applying the streamed
+ * changes that carry a newer version than the copied user.
+ * <p>
+ * A single tailer thread reads the committed changes in offset order. Offsets are drawn from
+ * a sequence before commit, so a missing offset may still be committed by a running
+ * transaction; the tailer waits for it up to the gap timeout before moving on. The offsets it
+ * skipped are watched for the late change timeout, and a change committed under one of them
+ * is still streamed, after changes with higher offsets. Such a late change is marked with the
+ * highest offset streamed before it, so that a subscriber resuming from an event id between
+ * the two has it replayed, having disconnected before it was streamed. A subscriber may
+ * receive a late change twice, and after resuming from its event id receives the changes
+ * after it again. Skipped offsets are counted; most are left by rolled back transactions and
+ * never show up.
+ * <p>
+ * Each subscriber has a bounded buffer drained by its own thread. The tailer never waits for
+ * subscribers: one whose buffer is full is disconnected and resumes through
+ * {@code Last-Event-ID}, catching up from the outbox table before it is streamed live again.
+ */
+@Slf4j
+@Service
+@EnableScheduling
+@EnableConfigurationProperties(UserChangeFeedProperties.class)
+public class UserChangeFeed implements SmartLifecycle {
+
+    private static final String METRIC_PREFIX = "users.changes";
+    private static final String POSITION_EVENT = "POSITION";
+
+    private final UserChangeRepository userChangeRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final UserChangeFeedProperties properties;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Semaphore wakeUp = new Semaphore(0);
+    private final Counter dropped;
+    private final Counter skippedChanges;
+    private final Counter lateChanges;
+    private final Map<Long, Long> skipped = new LinkedHashMap<>();
+
+    private volatile long publishedOffset = -1;
+    private volatile boolean running;
+    private Thread tailer;
+    private long gapOffset = -1;
+    private long gapSince;
+
+    public UserChangeFeed(UserChangeRepository userChangeRepository,
+                          PlatformTransactionManager transactionManager,
+                          UserChangeFeedProperties properties,
+                          MeterRegistry meterRegistry) {
+        this.userChangeRepository = userChangeRepository;
+        // Not read-only: a lagging replica would let the feed move past changes it has not seen.
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = properties;
+        this.dropped = meterRegistry.counter(METRIC_PREFIX + ".dropped");
+        this.skippedChanges = meterRegistry.counter(METRIC_PREFIX + ".skipped");
+        this.lateChanges = meterRegistry.counter(METRIC_PREFIX + ".late");
+        meterRegistry.gauge(METRIC_PREFIX + ".subscribers", subscribers, Set::size);
+        meterRegistry.gauge(METRIC_PREFIX + ".offset", this, feed -> feed.publishedOffset);
+    }
+
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public SseEmitter subscribe(Long offset) {
+        long after = offset == null ? publishedOffset : offset;
+        if (!running || publishedOffset < 0) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The change feed is not available.");
+        }
+        checkRetained(after);
+        Subscriber subscriber = new Subscriber(
+                new SseEmitter(properties.getConnectionTimeout().toMillis()), after, offset != null);
+        subscribers.add(subscriber);
+        subscriber.start();
+        return subscriber.emitter;
+    }
+
+    public void publishSoon() {
+        wakeUp.release();
+    }
+
+    /**
+     * Deletes the changes older than the retention period, except the newest of them. That
+     * one marks how far the feed has been purged, so that subscribers resuming from before it
+     * can be told they missed changes.
+     */
+    @Scheduled(fixedDelayString = "${users.changes.purge-interval:PT1H}",
+            initialDelayString = "${users.changes.purge-interval:PT1H}")
+    public void purge() {
+        Instant horizon = Instant.now().minus(properties.getRetention());
+        transactionTemplate.executeWithoutResult(status -> userChangeRepository.findLastIdBefore(horizon)
+                .ifPresent(userChangeRepository::deleteByIdLessThan));
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        tailer = Thread.ofPlatform()
+                .name("users-changes-tailer")
+                .start(this::tailLoop);
+    }
+
+    /**
+     * Runs in the default phase, before the web server shuts down gracefully, which would
+     * otherwise wait for the open streams until the shutdown timeout.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        if (tailer != null) {
+            tailer.interrupt();
+        }
+        subscribers.forEach(Subscriber::stop);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void checkRetained(long offset) {
+        Optional<UserChange> oldest = transactionTemplate.execute(status -> userChangeRepository.findFirstByOrderByIdAsc());
+        Instant horizon = Instant.now().minus(properties.getRetention());
+        if (oldest.isPresent() && oldest.get().getOccurredAt().isBefore(horizon) && offset < oldest.get().getId() - 1) {
+            throw new ResponseStatusException(
+                    HttpStatus.GONE,
+                    "Changes after offset %d are no longer retained.".formatted(offset));
+        }
+    }
+
+    private void tailLoop() {
+        while (running) {
+            try {
+                if (publishedOffset < 0) {
+                    publishedOffset = transactionTemplate.execute(status -> userChangeRepository.findLastId()).orElse(0L);
+                }
+                publishCommitted();
+                publishLate();
+            } catch (RuntimeException e) {
+                log.warn("Failed to read user changes.", e);
+            }
+            try {
+                if (wakeUp.tryAcquire(properties.getPollInterval().toMillis(), TimeUnit.MILLISECONDS)) {
+                    wakeUp.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void publishCommitted() {
+        List<UserChange> changes;
+        do {
+            changes = read(publishedOffset, Long.MAX_VALUE);
+            List<UserChangeDto> committed = new ArrayList<>(changes.size());
+            long offset = publishedOffset;
+            for (UserChange change : changes) {
+                if (change.getId() != offset + 1) {
+                    if (!gapExpired(offset + 1)) {
+                        break;
+                    }
+                    skip(offset + 1, change.getId());
+                }
+                offset = change.getId();
+                committed.add(UserChangeDto.of(change));
+            }
+            if (!committed.isEmpty()) {
+                publish(committed, offset);
+            }
+            if (committed.size() < changes.size()) {
+                return;
+            }
+        } while (changes.size() == properties.getPageSize());
+    }
+
+    private boolean gapExpired(long offset) {
+        long now = System.nanoTime();
+        if (gapOffset != offset) {
+            gapOffset = offset;
+            gapSince = now;
+            return false;
+        }
+        return now - gapSince >= properties.getGapTimeout().toNanos();
+    }
+
+    private void skip(long from, long to) {
+        long now = System.nanoTime();
+        for (long offset = from; offset < to; offset++) {
+            skipped.put(offset, now);
+        }
+        skippedChanges.increment(to - from);
+    }
+
+    /**
+     * Streams the changes committed under skipped offsets since the tailer moved past them,
+     * and stops watching the offsets skipped longer than the late change timeout ago.
+     */
+    private void publishLate() {
+        long now = System.nanoTime();
+        skipped.values().removeIf(since -> now - since >= properties.getLateChangeTimeout().toNanos());
+        List<Long> offsets = new ArrayList<>(skipped.keySet());
+        for (int from = 0; from < offsets.size(); from += properties.getPageSize()) {
+            List<Long> page = offsets.subList(from, Math.min(from + properties.getPageSize(), offsets.size()));
+            long streamedBefore = publishedOffset;
+            List<UserChange> changes = transactionTemplate.execute(status -> {
+                List<UserChange> found = userChangeRepository.findByIdInOrderByIdAsc(page);
+                if (!found.isEmpty()) {
+                    userChangeRepository.markLate(found.stream().map(UserChange::getId).toList(), streamedBefore);
+                }
+                return found;
+            });
+            if (!changes.isEmpty()) {
+                changes.forEach(change -> skipped.remove(change.getId()));
+                lateChanges.increment(changes.size());
+                publishLate(changes.stream().map(UserChangeDto::of).toList());
+            }
+        }
+    }
+
+    private synchronized void publish(List<UserChangeDto> changes, long offset) {
+        publishedOffset = offset;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.live) {
+                changes.forEach(change -> subscriber.offer(new Delivery(change, false)));
+            }
+        }
+    }
+
+    /**
+     * Offers late changes to subscribers that are still catching up too, since they may
+     * already have read past their offsets.
+     */
+    private synchronized void publishLate(List<UserChangeDto> changes) {
+        for (Subscriber subscriber : subscribers) {
+            changes.forEach(change -> subscriber.offer(new Delivery(change, true)));
+        }
+    }
+
+    /**
+     * Switches a subscriber that has caught up with the published offset to live delivery.
+     * Holding the same lock as {@link #publish} makes sure no change falls in between.
+     */
+    private synchronized boolean goLive(Subscriber subscriber) {
+        if (subscriber.lastSent < publishedOffset) {
+            return false;
+        }
+        subscriber.live = true;
+        return true;
+    }
+
+    private List<UserChange> read(long after, long upTo) {
+        return transactionTemplate.execute(status ->
+                userChangeRepository.findBetween(after, upTo, PageRequest.of(0, properties.getPageSize())));
+    }
+
+    private final class Subscriber {
+
+        private final SseEmitter emitter;
+        private final BlockingQueue<Delivery> buffer;
+        private final boolean resumed;
+        private volatile boolean live;
+        private volatile boolean closed;
+        private long lastSent;
+        private Thread sender;
+
+        Subscriber(SseEmitter emitter, long after, boolean resumed) {
+            this.emitter = emitter;
+            this.resumed = resumed;
+            this.buffer = new ArrayBlockingQueue<>(properties.getBufferSize());
+            this.lastSent = after;
+            emitter.onCompletion(this::close);
+            emitter.onTimeout(this::close);
+            emitter.onError(e -> close());
+        }
+
+        void start() {
+            sender = Thread.ofVirtual()
+                    .name("users-changes-subscriber")
+                    .start(this::run);
+        }
+
+        void offer(Delivery delivery) {
+            if (!buffer.offer(delivery)) {
+                dropped.increment();
+                close();
+            }
+        }
+
+        void stop() {
+            close();
+            if (sender != null) {
+                sender.interrupt();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            subscribers.remove(this);
+        }
+
+        private void run() {
+            try {
+                emitter.send(SseEmitter.event()
+                        .id(Long.toString(lastSent))
+                        .name(POSITION_EVENT)
+                        .data(Map.of("offset", lastSent), MediaType.APPLICATION_JSON));
+                catchUp();
+                while (!closed) {
+                    Delivery delivery = buffer.poll(properties.getHeartbeatInterval().toMillis(), TimeUnit.MILLISECONDS);
+                    if (delivery == null) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    } else if (delivery.late() || delivery.change().getOffset() > lastSent) {
+                        send(delivery.change());
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client has gone away or the connection has timed out.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+                emitter.complete();
+            }
+        }
+
+        /**
+         * Replays the late changes a resumed subscriber missed first: the ones streamed after
+         * the offset it resumes from, though below it.
+         */
+        private void catchUp() throws IOException {
+            if (resumed) {
+                long resumedFrom = lastSent;
+                List<UserChange> late = transactionTemplate.execute(status ->
+                        userChangeRepository.findLateAfter(resumedFrom));
+                for (UserChange change : late) {
+                    send(UserChangeDto.of(change));
+                }
+            }
+            while (!closed) {
+                long upTo = publishedOffset;
+                List<UserChange> changes;
+                do {
+                    changes = read(lastSent, upTo);
+                    for (UserChange change : changes) {
+                        send(UserChangeDto.of(change));
+                    }
+                } while (changes.size() == properties.getPageSize());
+                lastSent = Math.max(lastSent, upTo);
+                if (goLive(this)) {
+                    return;
+                }
+            }
+        }
+
+        private void send(UserChangeDto change) throws IOException {
+            emitter.send(SseEmitter.event()
+                    .id(Long.toString(change.getOffset()))
+                    .name(change.getType().name())
+                    .data(change, MediaType.APPLICATION_JSON));
+            lastSent = Math.max(lastSent, change.getOffset());
+        }
+    }
+
+    private record Delivery(UserChangeDto change, boolean late) {
+    }
+}
@@ -0,0 +1,74 @@
+package com.codenomads.springrestapidemo.service;
+
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.model.UserChange;
+import com.codenomads.springrestapidemo.model.UserChangeType;
+import com.codenomads.springrestapidemo.repository.UserChangeRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Records changes of users in the outbox table, as part of the transaction that makes them.
+ * A change is thereby published if and only if it is committed. The feed on this instance is
+ * woken up after the commit; other instances pick the change up with their next poll.
+ */
+@Service
+@RequiredArgsConstructor
+public class UserChangeOutbox {
+
+    private final UserChangeRepository userChangeRepository;
+    private final UserChangeFeed userChangeFeed;
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(UserChangeType type, User user) {
+        recordAll(type, List.of(user));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordAll(UserChangeType type, Collection<User> users) {
+        Instant now = Instant.now();
+        insert(users.stream()
+                .map(user -> UserChange.builder()
+                        .type(type)
+                        .email(user.getEmail())
+                        .name(user.getName())
+                        .birthDate(user.getBirthDate())
+                        .version(user.getVersion())
+                        .occurredAt(now)
+                        .build())
+                .toList());
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordDeleted(Collection<String> emails) {
+        Instant now = Instant.now();
+        insert(emails.stream()
+                .map(email -> UserChange.builder()
+                        .type(UserChangeType.DELETED)
+                        .email(email)
+                        .occurredAt(now)
+                        .build())
+                .toList());
+    }
+
+    private void insert(List<UserChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        userChangeRepository.insertAll(changes);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                userChangeFeed.publishSoon();
+            }
+        });
+    }
+}
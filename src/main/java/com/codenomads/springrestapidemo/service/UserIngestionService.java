@@ -0,0 +1,337 @@
+package com.codenomads.springrestapidemo.service;
+
+import com.codenomads.springrestapidemo.cache.UserCache;
+import com.codenomads.springrestapidemo.cache.UserEmailFilter;
+import com.codenomads.springrestapidemo.configuration.UserIngestionProperties;
+import com.codenomads.springrestapidemo.dto.IngestionStatus;
+import com.codenomads.springrestapidemo.dto.IngestionStatusDto;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.model.UserChangeType;
+import com.codenomads.springrestapidemo.model.UserIngestion;
+import com.codenomads.springrestapidemo.repository.UserIngestionRepository;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.codenomads.springrestapidemo.configuration.MetricsConfiguration.SERVICE_TIMER;
+
+/**
+ * Write-behind creation of users. Accepted users wait in a bounded queue and are inserted
+ * by a single writer thread, which takes whatever has queued up, up to the batch size, and
+ * writes it with one multi-row insert. Accepting a user touches no database connection: a
+ * full queue is answered with 429 right away.
+ * <p>
+ * The outcome of every user can be polled by its tracking id for a while, through any
+ * instance. The writer records outcomes in the {@code user_ingestions} table in the
+ * transaction that inserts the users, and the accepting instance also keeps statuses in
+ * memory. Tracking ids carry the time they were handed out, so an id without a recorded
+ * outcome is reported pending until its status would have expired, and unknown after that.
+ * <p>
+ * On shutdown new users are refused while the writer drains the queue, bounded by the
+ * drain timeout. Users still queued after that fail. The lifecycle phase makes this happen
+ * after the web server has stopped. Users queued on an instance that crashed stay pending
+ * until their status expires.
+ */
+@Slf4j
+@Service
+@EnableConfigurationProperties(UserIngestionProperties.class)
+public class UserIngestionService implements SmartLifecycle {
+
+    private static final String METRIC_PREFIX = "users.ingestion";
+    private static final String ALREADY_EXISTS = "User already exists.";
+    private static final long POLL_MILLIS = 100;
+    private static final int WEB_SERVER_STOPPED_PHASE = SmartLifecycle.DEFAULT_PHASE - 2048;
+    private static final int MAXIMUM_ERROR_LENGTH = 2048;
+    private static final int TRACKING_ID_VERSION = 7;
+
+    private final UserRepository userRepository;
+    private final UserIngestionRepository userIngestionRepository;
+    private final EntityManager entityManager;
+    private final UserCache userCache;
+    private final UserEmailFilter userEmailFilter;
+    private final UserChangeOutbox userChangeOutbox;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final UserIngestionProperties properties;
+    private final BlockingQueue<PendingUser> queue;
+    private final Cache<UUID, IngestionStatusDto> statuses;
+    private final Counter rejected;
+
+    private volatile boolean accepting;
+    private volatile boolean running;
+    private Thread writer;
+
+    public UserIngestionService(UserRepository userRepository,
+                                UserIngestionRepository userIngestionRepository,
+                                EntityManager entityManager,
+                                UserCache userCache,
+                                UserEmailFilter userEmailFilter,
+                                UserChangeOutbox userChangeOutbox,
+                                PlatformTransactionManager transactionManager,
+                                UserIngestionProperties properties,
+                                MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.userIngestionRepository = userIngestionRepository;
+        this.entityManager = entityManager;
+        this.userCache = userCache;
+        this.userEmailFilter = userEmailFilter;
+        this.userChangeOutbox = userChangeOutbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // A lagging replica only reports a user pending for a little longer.
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.properties = properties;
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+        this.statuses = Caffeine.newBuilder()
+                .maximumSize(properties.getStatusMaximumSize())
+                .expireAfterWrite(properties.getStatusRetention())
+                .build();
+        this.rejected = meterRegistry.counter(METRIC_PREFIX + ".rejected");
+        meterRegistry.gauge(METRIC_PREFIX + ".queue.size", queue, BlockingQueue::size);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public IngestionStatusDto submit(User user) {
+        if (!accepting) {
+            throw new ResponseStatusException(
+                    HttpStatus.SERVICE_UNAVAILABLE,
+                    "Users are currently not accepted for ingestion.");
+        }
+        user.setId(UUID.randomUUID());
+        IngestionStatusDto status = IngestionStatusDto.pending(newTrackingId(), user.getEmail());
+        // Kept before the user is queued, so that the writer never completes it first.
+        statuses.put(status.getTrackingId(), status);
+        if (!queue.offer(new PendingUser(status.getTrackingId(), user))) {
+            statuses.invalidate(status.getTrackingId());
+            rejected.increment();
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "The ingestion queue is full.");
+        }
+        return status;
+    }
+
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public IngestionStatusDto getStatus(UUID trackingId) {
+        IngestionStatusDto status = statuses.getIfPresent(trackingId);
+        if (status != null) {
+            return status;
+        }
+        return readOnlyTransactionTemplate.execute(transaction -> userIngestionRepository.findById(trackingId))
+                .map(ingestion -> new IngestionStatusDto(
+                        ingestion.getTrackingId(), ingestion.getEmail(), ingestion.getStatus(), ingestion.getError()))
+                .or(() -> isRetained(trackingId)
+                        ? Optional.of(IngestionStatusDto.pending(trackingId, null))
+                        : Optional.empty())
+                .orElseThrow(() -> new ResponseStatusException(
+                        HttpStatus.NOT_FOUND,
+                        "Ingestion with tracking id '%s' could not be found.".formatted(trackingId)));
+    }
+
+    /**
+     * Drops the in-memory tier, so that statuses are read from the table.
+     */
+    public void invalidateAll() {
+        statuses.invalidateAll();
+    }
+
+    @Scheduled(fixedDelayString = "${users.ingestion.purge-interval:PT10M}",
+            initialDelayString = "${users.ingestion.purge-interval:PT10M}")
+    public void purge() {
+        if (isEnabled()) {
+            Instant before = Instant.now().minus(properties.getStatusRetention());
+            transactionTemplate.executeWithoutResult(transaction -> userIngestionRepository.deleteUpdatedBefore(before));
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        running = true;
+        writer = Thread.ofPlatform()
+                .name("users-ingestion-writer")
+                .start(this::writeLoop);
+        accepting = true;
+    }
+
+    @Override
+    public void stop() {
+        accepting = false;
+        running = false;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.join(properties.getDrainTimeout().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            List<PendingUser> lost = new ArrayList<>();
+            queue.drainTo(lost);
+            log.warn("Ingestion queue not drained within {}, {} users are not written.",
+                    properties.getDrainTimeout(), lost.size());
+            writer.interrupt();
+            fail(lost, "Ingestion stopped before the user was written.");
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return WEB_SERVER_STOPPED_PHASE;
+    }
+
+    private void writeLoop() {
+        List<PendingUser> batch = new ArrayList<>(properties.getBatchSize());
+        while (running || !queue.isEmpty()) {
+            PendingUser first;
+            try {
+                first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, properties.getBatchSize() - 1);
+            try {
+                write(batch);
+            } catch (DataAccessException e) {
+                batch.forEach(this::writeSingle);
+            } catch (RuntimeException e) {
+                log.error("Failed to write {} ingested users.", batch.size(), e);
+                fail(batch, e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeSingle(PendingUser pendingUser) {
+        try {
+            write(List.of(pendingUser));
+        } catch (DataAccessException e) {
+            fail(List.of(pendingUser), e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    private void write(List<PendingUser> batch) {
+        List<User> users = batch.stream()
+                .map(PendingUser::user)
+                .toList();
+        Set<UUID> insertedIds = transactionTemplate.execute(status -> {
+            users.forEach(user -> {
+                userEmailFilter.add(user.getEmail());
+                userCache.invalidateNativeWriteAfterCompletion(user.getEmail());
+            });
+            Set<UUID> ids = userRepository.insertIgnoringConflicts(users);
+            List<User> insertedUsers = users.stream()
+                    .filter(user -> ids.contains(user.getId()))
+                    .toList();
+            insertedUsers.forEach(user -> user.setVersion(0L));
+            userChangeOutbox.recordAll(UserChangeType.CREATED, insertedUsers);
+            Instant now = Instant.now();
+            for (PendingUser pendingUser : batch) {
+                boolean inserted = ids.contains(pendingUser.user().getId());
+                record(pendingUser, inserted ? IngestionStatus.CREATED : IngestionStatus.FAILED,
+                        inserted ? null : ALREADY_EXISTS, now);
+            }
+            return ids;
+        });
+        for (PendingUser pendingUser : batch) {
+            UUID trackingId = pendingUser.trackingId();
+            String email = pendingUser.user().getEmail();
+            statuses.put(trackingId, insertedIds.contains(pendingUser.user().getId())
+                    ? IngestionStatusDto.created(trackingId, email)
+                    : IngestionStatusDto.failed(trackingId, email, ALREADY_EXISTS));
+        }
+    }
+
+    private void record(PendingUser pendingUser, IngestionStatus status, String error, Instant now) {
+        entityManager.persist(UserIngestion.builder()
+                .trackingId(pendingUser.trackingId())
+                .email(pendingUser.user().getEmail())
+                .status(status)
+                .error(error)
+                .updatedAt(now)
+                .build());
+    }
+
+    /**
+     * A random id whose leading 48 bits hold the current time in milliseconds, laid out as
+     * a version 7 UUID.
+     */
+    private static UUID newTrackingId() {
+        UUID random = UUID.randomUUID();
+        long mostSignificantBits = System.currentTimeMillis() << 16
+                | TRACKING_ID_VERSION << 12
+                | random.getMostSignificantBits() & 0xFFF;
+        return new UUID(mostSignificantBits, random.getLeastSignificantBits());
+    }
+
+    private boolean isRetained(UUID trackingId) {
+        if (trackingId.version() != TRACKING_ID_VERSION) {
+            return false;
+        }
+        Instant handedOut = Instant.ofEpochMilli(trackingId.getMostSignificantBits() >>> 16);
+        return handedOut.isAfter(Instant.now().minus(properties.getStatusRetention()));
+    }
+
+    /**
+     * Never throws: the writer must survive a database that is gone, which is often why the
+     * users could not be written in the first place. Their status is then only failed in
+     * memory, other instances see it pending until it expires.
+     */
+    private void fail(List<PendingUser> pendingUsers, String error) {
+        String truncated = error != null && error.length() > MAXIMUM_ERROR_LENGTH
+                ? error.substring(0, MAXIMUM_ERROR_LENGTH)
+                : error;
+        for (PendingUser pendingUser : pendingUsers) {
+            statuses.put(pendingUser.trackingId(),
+                    IngestionStatusDto.failed(pendingUser.trackingId(), pendingUser.user().getEmail(), truncated));
+        }
+        try {
+            Instant now = Instant.now();
+            transactionTemplate.executeWithoutResult(transaction -> pendingUsers.forEach(pendingUser ->
+                    record(pendingUser, IngestionStatus.FAILED, truncated, now)));
+        } catch (RuntimeException e) {
+            log.warn("Failed to record the failure of {} ingested users.", pendingUsers.size(), e);
+        }
+    }
+
+    private record PendingUser(UUID trackingId, User user) {
+    }
+}
@@ -1,57 +1,239 @@
 package com.codenomads.springrestapidemo.service;
 
+import com.codenomads.springrestapidemo.cache.UserCache;
+import com.codenomads.springrestapidemo.cache.SingleFlight;
+import com.codenomads.springrestapidemo.cache.UserEmailFilter;
+import com.codenomads.springrestapidemo.configuration.UserCacheProperties;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.dto.UserSearchCriteria;
+import com.codenomads.springrestapidemo.dto.VersionedUserDto;
 import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.model.UserChangeType;
 import com.codenomads.springrestapidemo.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
+import com.codenomads.springrestapidemo.repository.UserSpecifications;
+import com.codenomads.springrestapidemo.repository.UserVersion;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
-import javax.transaction.Transactional;
+import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.codenomads.springrestapidemo.configuration.MetricsConfiguration.SERVICE_TIMER;
+import static com.codenomads.springrestapidemo.configuration.MetricsConfiguration.USER_NOT_FOUND_COUNTER;
 
 @Service
-@RequiredArgsConstructor
 public class UserService {
 
+    private static final String KEYSET_PROPERTY = "email";
+    private static final String PAGES = "users.pages";
+
     private final UserRepository userRepository;
+    private final UserCache userCache;
+    private final UserEmailFilter userEmailFilter;
+    private final UserChangeOutbox userChangeOutbox;
+    private final EntityManager entityManager;
+    private final MeterRegistry meterRegistry;
+    private final SingleFlight<Pageable, Page<VersionedUserDto>> pageQueries;
+
+    public UserService(UserRepository userRepository,
+                       UserCache userCache,
+                       UserEmailFilter userEmailFilter,
+                       UserChangeOutbox userChangeOutbox,
+                       EntityManager entityManager,
+                       UserCacheProperties userCacheProperties,
+                       MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.userCache = userCache;
+        this.userEmailFilter = userEmailFilter;
+        this.userChangeOutbox = userChangeOutbox;
+        this.entityManager = entityManager;
+        this.meterRegistry = meterRegistry;
+        this.pageQueries = new SingleFlight<>(PAGES, userCacheProperties.getMaximumCoalescingWait(), meterRegistry);
+    }
 
-    public User getUserByEmail(String email) {
-        return userRepository.findByEmail(email)
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public VersionedUserDto getUserByEmail(String email) {
+        return userCache.get(email, this::findUserByEmail)
                 .orElseThrow(() -> createUserNotFoundException(email));
     }
 
-    public Page<User> getAllUsersByPage(Pageable pageable) {
-        return userRepository.findAll(pageable);
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public Page<VersionedUserDto> getAllUsersByPage(Pageable pageable) {
+        return pageQueries.execute(pageable, () -> userRepository.findAllDtos(pageable));
     }
 
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public Slice<UserDto> getUsersByKeyset(String lastEmail, Pageable pageable) {
+        Sort.Direction direction = getKeysetDirection(pageable.getSort());
+        Pageable firstPage = PageRequest.of(0, pageable.getPageSize(), Sort.by(direction, KEYSET_PROPERTY));
+        if (lastEmail == null) {
+            return userRepository.findDtoSlice(firstPage);
+        }
+        return direction.isAscending()
+                ? userRepository.findDtoSliceAfter(lastEmail, firstPage)
+                : userRepository.findDtoSliceBefore(lastEmail, firstPage);
+    }
+
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public Slice<UserDto> searchUsers(UserSearchCriteria criteria, String lastEmail, Pageable pageable) {
+        if (criteria.getBirthDateFrom() != null && criteria.getBirthDateTo() != null
+                && criteria.getBirthDateFrom().isAfter(criteria.getBirthDateTo())) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "The birth date range must not end before it starts.");
+        }
+        Sort.Direction direction = getKeysetDirection(pageable.getSort());
+        Pageable firstPage = PageRequest.of(0, pageable.getPageSize(), Sort.by(direction, KEYSET_PROPERTY));
+        Specification<User> specification = UserSpecifications.matching(criteria);
+        if (lastEmail != null) {
+            specification = specification.and(direction.isAscending()
+                    ? UserSpecifications.emailAfter(lastEmail)
+                    : UserSpecifications.emailBefore(lastEmail));
+        }
+        return userRepository.findDtoSlice(specification, firstPage);
+    }
+
+    /**
+     * Passes every user to the consumer while walking a forward-only cursor. Each entity is
+     * detached once consumed, so the persistence context does not grow with the table. The
+     * second-level cache is bypassed, which would otherwise be filled with every user. This
+     * is set on the session, since the cache mode of a query only applies while it executes,
+     * not while its stream is read.
+     */
+    @Transactional(readOnly = true)
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public void exportUsers(Consumer<User> consumer) {
+        entityManager.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+        try (Stream<User> users = userRepository.streamAllBy()) {
+            users.forEach(user -> {
+                consumer.accept(user);
+                entityManager.detach(user);
+            });
+        }
+    }
+
+    @Transactional
+    @Timed(value = SERVICE_TIMER, histogram = true)
     public User createUser(User user) {
-        return userRepository.save(user);
+        checkEmailNotTaken(user.getEmail());
+        User savedUser = userRepository.save(user);
+        userCache.invalidateAfterCompletion(savedUser.getEmail());
+        userChangeOutbox.record(UserChangeType.CREATED, savedUser);
+        return savedUser;
     }
 
     @Transactional
+    @Timed(value = SERVICE_TIMER, histogram = true)
     public User createOrUpdateUser(User user) {
-        return userRepository.findByEmail(user.getEmail())
-                .map(userToUpdate -> {
-                    userToUpdate.setName(user.getName());
-                    userToUpdate.setBirthDate(user.getBirthDate());
-                    return userToUpdate;
-                })
-                .orElseGet(() -> userRepository.save(user));
+        userEmailFilter.add(user.getEmail());
+        User savedUser = userRepository.upsertByEmail(user);
+        userCache.invalidateNativeWriteAfterCompletion(savedUser);
+        userChangeOutbox.record(savedUser.getVersion() == 0 ? UserChangeType.CREATED : UserChangeType.UPDATED, savedUser);
+        return savedUser;
+    }
+
+    /**
+     * Updates an existing user only if the given If-Match header still matches its current
+     * entity tag. The check is repeated atomically by the update itself, so a concurrent
+     * writer that slips in between the lookup and the update is detected as well.
+     */
+    @Transactional
+    @Timed(value = SERVICE_TIMER, histogram = true)
+    public User updateUserIfMatch(User user, String ifMatch) {
+        UserVersion current = userRepository.findVersionByEmail(user.getEmail())
+                .filter(version -> matches(ifMatch, VersionedUserDto.eTagOf(version.getId(), version.getVersion())))
+                .orElseThrow(() -> createPreconditionFailedException(user.getEmail()));
+        User updatedUser = userRepository.updateIfVersionMatches(current.getId(), current.getVersion(), user)
+                .orElseThrow(() -> createPreconditionFailedException(user.getEmail()));
+        userCache.invalidateNativeWriteAfterCompletion(updatedUser);
+        userChangeOutbox.record(UserChangeType.UPDATED, updatedUser);
+        return updatedUser;
     }
 
+    @Transactional
+    @Timed(value = SERVICE_TIMER, histogram = true)
     public void deleteUserByEmail(String email) {
-        userRepository.findByEmail(email)
-                .ifPresentOrElse(userRepository::delete,
-                        () -> {
-                            throw createUserNotFoundException(email);
-                        });
+        if (userEmailFilter.isDefinitelyAbsent(email)) {
+            throw createUserNotFoundException(email);
+        }
+        userCache.invalidateNativeWriteAfterCompletion(email);
+        if (userRepository.deleteByEmailIn(List.of(email)).isEmpty()) {
+            userEmailFilter.recordFalsePositive();
+            throw createUserNotFoundException(email);
+        }
+        userChangeOutbox.recordDeleted(List.of(email));
+    }
+
+    private Optional<VersionedUserDto> findUserByEmail(String email) {
+        if (userEmailFilter.isDefinitelyAbsent(email)) {
+            return Optional.empty();
+        }
+        Optional<VersionedUserDto> user = userRepository.findByEmail(email)
+                .map(found -> new VersionedUserDto(found.getId(), found.getVersion(), found.getLastModified(),
+                        found.getName(), found.getEmail(), found.getBirthDate()));
+        if (user.isEmpty()) {
+            userEmailFilter.recordFalsePositive();
+        }
+        return user;
+    }
+
+    /*
+     * Not short-circuited by the email filter: it may not yet know a user just created by
+     * another instance, and the unique key would then reject the insert with a server error.
+     */
+    private void checkEmailNotTaken(String email) {
+        if (userRepository.existsByEmail(email)) {
+            throw new ResponseStatusException(
+                    HttpStatus.CONFLICT,
+                    "User with email '%s' already exists.".formatted(email));
+        }
     }
 
     private ResponseStatusException createUserNotFoundException(String email) {
+        meterRegistry.counter(USER_NOT_FOUND_COUNTER).increment();
         return new ResponseStatusException(
                 HttpStatus.NOT_FOUND,
                 "User with email '%s' could not be found.".formatted(email));
     }
+
+    private ResponseStatusException createPreconditionFailedException(String email) {
+        return new ResponseStatusException(
+                HttpStatus.PRECONDITION_FAILED,
+                "User with email '%s' has been modified or does not exist.".formatted(email));
+    }
+
+    private static boolean matches(String ifMatch, String eTag) {
+        return Arrays.stream(ifMatch.split(","))
+                .map(String::strip)
+                .anyMatch(candidate -> candidate.equals("*") || candidate.equals(eTag));
+    }
+
+    private Sort.Direction getKeysetDirection(Sort sort) {
+        if (sort.isUnsorted()) {
+            return Sort.Direction.ASC;
+        }
+        Sort.Order order = sort.getOrderFor(KEYSET_PROPERTY);
+        if (order == null || sort.stream().count() > 1) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "Keyset pagination can only be sorted by '%s'.".formatted(KEYSET_PROPERTY));
+        }
+        return order.getDirection();
+    }
 }
@@ -1,20 +1,34 @@
 package com.codenomads.springrestapidemo.swagger;
 
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Import;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfoHandlerMapping;
 import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.builders.RequestHandlerSelectors;
 import springfox.documentation.spi.DocumentationType;
-import springfox.documentation.spring.data.rest.configuration.SpringDataRestConfiguration;
 import springfox.documentation.spring.web.plugins.Docket;
+import springfox.documentation.spring.web.plugins.WebMvcRequestHandlerProvider;
 import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * API documentation. Springfox scans every handler method while the context starts, so the
+ * {@code production} profile switches it off through {@value #ENABLED_PROPERTY}, the same
+ * property that guards springfox's own auto-configuration.
+ */
 @Configuration
 @EnableSwagger2
-@Import(SpringDataRestConfiguration.class)
+@ConditionalOnProperty(name = SwaggerConfig.ENABLED_PROPERTY, havingValue = "true", matchIfMissing = true)
 public class SwaggerConfig {
 
+    public static final String ENABLED_PROPERTY = "springfox.documentation.enabled";
+
     @Bean
     public Docket api() {
         return new Docket(DocumentationType.SWAGGER_2).select()
@@ -23,4 +37,33 @@ public class SwaggerConfig {
                 .build();
     }
 
+    /**
+     * Springfox only understands ant-style handler mappings and fails on the PathPattern based
+     * mappings that actuator registers, so those are hidden from it.
+     */
+    @Bean
+    public static BeanPostProcessor springfoxHandlerProviderBeanPostProcessor() {
+        return new BeanPostProcessor() {
+
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof WebMvcRequestHandlerProvider) {
+                    removePathPatternMappings(getHandlerMappings(bean));
+                }
+                return bean;
+            }
+
+            private void removePathPatternMappings(List<RequestMappingInfoHandlerMapping> mappings) {
+                mappings.removeIf(mapping -> mapping.getPatternParser() != null);
+            }
+
+            @SuppressWarnings("unchecked")
+            private List<RequestMappingInfoHandlerMapping> getHandlerMappings(Object bean) {
+                Field field = ReflectionUtils.findField(bean.getClass(), "handlerMappings");
+                ReflectionUtils.makeAccessible(field);
+                return (List<RequestMappingInfoHandlerMapping>) ReflectionUtils.getField(field, bean);
+            }
+        };
+    }
+
 }
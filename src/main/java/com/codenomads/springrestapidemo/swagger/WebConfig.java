@@ -1,34 +1,28 @@
 package com.codenomads.springrestapidemo.swagger;
 
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.ComponentScan;
+import com.codenomads.springrestapidemo.ratelimit.RateLimitInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.web.servlet.ViewResolver;
-import org.springframework.web.servlet.config.annotation.EnableWebMvc;
-import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
-import org.springframework.web.servlet.view.InternalResourceViewResolver;
 
+/**
+ * Spring MVC itself is set up by Boot's auto-configuration; component scanning is left to
+ * {@code @SpringBootApplication}.
+ */
 @Configuration
-@ComponentScan("com.codenomads.springrestapidemo")
-@EnableWebMvc
 @EnableAsync
+@RequiredArgsConstructor
 public class WebConfig implements WebMvcConfigurer {
 
-    @Override
-    public void addResourceHandlers(final ResourceHandlerRegistry registry) {
-        registry.addResourceHandler("swagger-ui.html").addResourceLocations("classpath:/META-INF/resources/");
-        registry.addResourceHandler("/webjars/**").addResourceLocations("classpath:/META-INF/resources/webjars/");
-    }
+    private final ObjectProvider<RateLimitInterceptor> rateLimitInterceptor;
 
-    @Bean
-    public ViewResolver viewResolver() {
-        final InternalResourceViewResolver viewResolver = new InternalResourceViewResolver();
-        viewResolver.setPrefix("/WEB-INF/view/");
-        viewResolver.setSuffix(".jsp");
-        return viewResolver;
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        rateLimitInterceptor.ifAvailable(interceptor -> registry.addInterceptor(interceptor).addPathPatterns("/users/**"));
     }
 
     @Override
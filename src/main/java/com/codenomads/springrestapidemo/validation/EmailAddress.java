@@ -0,0 +1,27 @@
+package com.codenomads.springrestapidemo.validation;
+
+import javax.validation.Constraint;
+import javax.validation.Payload;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The value must be an email address as accepted by {@link EmailAddressValidator#REGEXP}.
+ * {@code null} is valid.
+ */
+@Documented
+@Constraint(validatedBy = EmailAddressValidator.class)
+@Target({FIELD, METHOD, PARAMETER, ANNOTATION_TYPE, TYPE_USE})
+@Retention(RUNTIME)
+public @interface EmailAddress {
+
+    String message() default "{javax.validation.constraints.Email.message}";
+
+    Class<?>[] groups() default {};
+
+    Class<? extends Payload>[] payload() default {};
+}
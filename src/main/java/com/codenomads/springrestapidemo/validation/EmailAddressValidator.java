@@ -0,0 +1,68 @@
+package com.codenomads.springrestapidemo.validation;
+
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+
+/**
+ * Checks email addresses with a single pass over the characters instead of the regular
+ * expression they are specified by, which needs no matcher and cannot backtrack.
+ */
+public class EmailAddressValidator implements ConstraintValidator<EmailAddress, CharSequence> {
+
+    /**
+     * The addresses accepted, as a regular expression.
+     */
+    public static final String REGEXP = "^[\\w-\\.]+@([\\w-]+\\.)+[\\w-]{2,4}$";
+
+    private static final int MIN_TOP_LEVEL_LENGTH = 2;
+    private static final int MAX_TOP_LEVEL_LENGTH = 4;
+
+    @Override
+    public boolean isValid(CharSequence value, ConstraintValidatorContext context) {
+        return value == null || isEmailAddress(value);
+    }
+
+    /**
+     * The local part runs up to the first {@code @}, which cannot occur in either part. The
+     * domain consists of non-empty labels separated by dots, the last of which is the
+     * top-level domain.
+     */
+    public static boolean isEmailAddress(CharSequence value) {
+        int length = value.length();
+        int index = 0;
+        while (index < length && isLocalChar(value.charAt(index))) {
+            index++;
+        }
+        if (index == 0 || index == length || value.charAt(index) != '@') {
+            return false;
+        }
+        int labelStart = ++index;
+        boolean subdomain = false;
+        for (; index < length; index++) {
+            char c = value.charAt(index);
+            if (c == '.') {
+                if (index == labelStart) {
+                    return false;
+                }
+                subdomain = true;
+                labelStart = index + 1;
+            } else if (!isLabelChar(c)) {
+                return false;
+            }
+        }
+        int topLevelLength = length - labelStart;
+        return subdomain && topLevelLength >= MIN_TOP_LEVEL_LENGTH && topLevelLength <= MAX_TOP_LEVEL_LENGTH;
+    }
+
+    private static boolean isLocalChar(char c) {
+        return c == '.' || isLabelChar(c);
+    }
+
+    private static boolean isLabelChar(char c) {
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || c == '_'
+                || c == '-';
+    }
+}
@@ -0,0 +1,3 @@
+-- Prefix searches need text_pattern_ops indexes, which @Index on the entity cannot declare.
+CREATE INDEX users_email_pattern_idx ON users (email text_pattern_ops);
+CREATE INDEX users_name_pattern_idx ON users (lower(name) text_pattern_ops);
@@ -0,0 +1,142 @@
+package com.codenomads.springrestapidemo.cache;
+
+import com.codenomads.springrestapidemo.configuration.UserCacheProperties;
+import com.codenomads.springrestapidemo.dto.VersionedUserDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Lets a slow lookup read the state before a write and only return once the write has
+ * committed and invalidated the email.
+ */
+class UserCacheTest {
+
+    private static final String EMAIL = "hans@gmail.com";
+
+    private UserCache userCache;
+    private UserEmailFilter emailFilter;
+    private LoopbackUserInvalidationChannel invalidationChannel;
+    private CountDownLatch lookupStarted;
+    private CountDownLatch writeCommitted;
+
+    @BeforeEach
+    void createCache() {
+        emailFilter = mock(UserEmailFilter.class);
+        invalidationChannel = new LoopbackUserInvalidationChannel();
+        userCache = new UserCache(new UserCacheProperties(), mock(UserSecondLevelCache.class),
+                emailFilter, invalidationChannel, new SimpleMeterRegistry());
+        lookupStarted = new CountDownLatch(1);
+        writeCommitted = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void shouldNotCacheMissReadBeforeCommittedCreate() throws Exception {
+        CompletableFuture<Optional<VersionedUserDto>> lookup = lookUpSlowly(Optional.empty());
+
+        commitWrite();
+
+        assertTrue(lookup.get(10, TimeUnit.SECONDS).isEmpty());
+        assertEquals("Hans", userCache.get(EMAIL, email -> user("Hans")).orElseThrow().getUser().getName());
+    }
+
+    @Test
+    void shouldNotCacheUserReadBeforeCommittedUpdate() throws Exception {
+        CompletableFuture<Optional<VersionedUserDto>> lookup = lookUpSlowly(user("Hans"));
+
+        commitWrite();
+
+        assertEquals("Hans", lookup.get(10, TimeUnit.SECONDS).orElseThrow().getUser().getName());
+        assertEquals("Hansi", userCache.get(EMAIL, email -> user("Hansi")).orElseThrow().getUser().getName());
+    }
+
+    @Test
+    void shouldCacheUserReadWithoutConcurrentWrite() {
+        userCache.get(EMAIL, email -> user("Hans"));
+
+        assertEquals("Hans", userCache.get(EMAIL, email -> user("Hansi")).orElseThrow().getUser().getName());
+    }
+
+    /**
+     * A lookup running while the email filter still misses a user created by another
+     * instance finds nothing, which must not be kept once the invalidation is through.
+     */
+    @Test
+    void shouldNotCacheMissShortCircuitedBeforeEmailFilterLearnedOfRemoteCreate() {
+        Set<String> filter = new HashSet<>();
+        Function<String, Optional<VersionedUserDto>> loader =
+                email -> filter.contains(email) ? user("Hans") : Optional.empty();
+        doAnswer(invocation -> {
+            userCache.get(EMAIL, loader);
+            filter.add(EMAIL);
+            return null;
+        }).when(emailFilter).invalidate(any());
+
+        invalidationChannel.receive(Set.of(new UserInvalidation(EMAIL, null)));
+
+        assertTrue(userCache.get(EMAIL, loader).isPresent());
+    }
+
+    private CompletableFuture<Optional<VersionedUserDto>> lookUpSlowly(Optional<VersionedUserDto> readBeforeWrite)
+            throws InterruptedException {
+        CompletableFuture<Optional<VersionedUserDto>> lookup = CompletableFuture.supplyAsync(
+                () -> userCache.get(EMAIL, email -> {
+                    lookupStarted.countDown();
+                    try {
+                        assertTrue(writeCommitted.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return readBeforeWrite;
+                }));
+        assertTrue(lookupStarted.await(10, TimeUnit.SECONDS));
+        return lookup;
+    }
+
+    /**
+     * Runs the transaction synchronizations of a write the way the transaction manager does
+     * on commit.
+     */
+    private void commitWrite() {
+        TransactionSynchronizationManager.initSynchronization();
+        userCache.invalidateAfterCompletion(EMAIL);
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationUtils.triggerBeforeCommit(false);
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+        writeCommitted.countDown();
+    }
+
+    private static Optional<VersionedUserDto> user(String name) {
+        return Optional.of(new VersionedUserDto(
+                UUID.randomUUID(), 0L, Instant.now(), name, EMAIL, LocalDate.parse("1993-11-02")));
+    }
+}
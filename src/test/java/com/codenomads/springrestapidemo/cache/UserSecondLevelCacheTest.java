@@ -0,0 +1,193 @@
+package com.codenomads.springrestapidemo.cache;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import com.codenomads.springrestapidemo.service.UserBatchService;
+import com.codenomads.springrestapidemo.service.UserService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Counts the database reads Hibernate makes for repeated lookups of the same user, before and
+ * after they go through the natural id and the second-level cache. Statistics of the user
+ * entity are compared rather than statement counts, which background threads add to.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = SpringRestApiDemoApplication.class)
+class UserSecondLevelCacheTest {
+
+    private static final int LOOKUPS = 20;
+    private static final String EMAIL = "hans@gmail.com";
+    private static final String QUERY_BY_EMAIL = "select u from User u where u.email = :email";
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserBatchService userBatchService;
+
+    @Autowired
+    private UserSecondLevelCache userSecondLevelCache;
+
+    @Autowired
+    private LoopbackUserInvalidationChannel userInvalidationChannel;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSourceProperties dataSourceProperties;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void saveUser() {
+        userRepository.save(User.builder()
+                .name("Hans")
+                .email(EMAIL)
+                .build());
+        userSecondLevelCache.evictAll();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @AfterEach
+    void deleteUser() {
+        userRepository.deleteAll(userRepository.findByEmailIn(List.of(EMAIL)));
+    }
+
+    @Test
+    void shouldQueryDatabaseForEveryLookupByQuery() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+
+        for (int lookup = 0; lookup < LOOKUPS; lookup++) {
+            transactionTemplate.execute(status -> entityManager
+                    .createQuery(QUERY_BY_EMAIL, User.class)
+                    .setParameter("email", EMAIL)
+                    .getSingleResult());
+        }
+
+        assertEquals(LOOKUPS, statistics.getQueryStatistics(QUERY_BY_EMAIL).getExecutionCount());
+        assertEquals(LOOKUPS, statistics.getEntityStatistics(User.class.getName()).getLoadCount());
+    }
+
+    @Test
+    void shouldAnswerRepeatedLookupsByNaturalIdFromSecondLevelCache() {
+        for (int lookup = 0; lookup < LOOKUPS; lookup++) {
+            assertEquals("Hans", userRepository.findByEmail(EMAIL).orElseThrow().getName());
+        }
+
+        assertEquals(1, statistics.getNaturalIdStatistics(User.class.getName()).getExecutionCount());
+        assertEquals(1, statistics.getEntityStatistics(User.class.getName()).getLoadCount());
+        assertEquals(LOOKUPS - 1, statistics.getNaturalIdCacheHitCount());
+        assertEquals(LOOKUPS - 1, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    void shouldExportUsersWithoutFillingSecondLevelCache() {
+        List<String> exported = new ArrayList<>();
+
+        userService.exportUsers(user -> exported.add(user.getEmail()));
+
+        assertTrue(exported.contains(EMAIL));
+        assertEquals(0, statistics.getSecondLevelCachePutCount());
+    }
+
+    @Test
+    void shouldLeaveUsersUpdatedThroughEntitiesToHibernate() {
+        User user = userRepository.findByEmail(EMAIL).orElseThrow();
+        userBatchService.createOrUpdateUsers(List.of(new UserDto("Hansi", EMAIL, LocalDate.parse("1993-11-02"))));
+        statistics.clear();
+
+        User updated = new TransactionTemplate(transactionManager)
+                .execute(status -> entityManager.find(User.class, user.getId()));
+
+        assertEquals("Hansi", updated.getName());
+        assertEquals(0, statistics.getEntityStatistics(User.class.getName()).getLoadCount());
+        assertEquals(1, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    void shouldReloadUserInvalidatedByAnotherInstance() {
+        assertEquals("Hans", userRepository.findByEmail(EMAIL).orElseThrow().getName());
+        jdbcTemplate.update("update users set name = 'Hansi', version = version + 1 where email = ?", EMAIL);
+        assertEquals("Hans", userRepository.findByEmail(EMAIL).orElseThrow().getName());
+
+        userInvalidationChannel.receive(Set.of(new UserInvalidation(EMAIL, null)));
+
+        assertEquals("Hansi", userRepository.findByEmail(EMAIL).orElseThrow().getName());
+    }
+
+    @Test
+    void shouldBroadcastInvalidationsThroughPostgres() throws Exception {
+        PostgresUserInvalidationChannel sender = new PostgresUserInvalidationChannel(
+                jdbcTemplate, dataSourceProperties, Duration.ofMillis(100));
+        PostgresUserInvalidationChannel receiver = new PostgresUserInvalidationChannel(
+                jdbcTemplate, dataSourceProperties, Duration.ofMillis(100));
+        BlockingQueue<UserInvalidation> received = new LinkedBlockingQueue<>();
+        BlockingQueue<Boolean> connected = new LinkedBlockingQueue<>();
+        receiver.subscribe(new UserInvalidationChannel.Listener() {
+            @Override
+            public void invalidate(UserInvalidation invalidation) {
+                received.add(invalidation);
+            }
+
+            @Override
+            public void invalidateAll() {
+                connected.add(true);
+            }
+        });
+        receiver.start();
+        try {
+            assertNotNull(connected.poll(10, TimeUnit.SECONDS));
+            User user = userRepository.findByEmail(EMAIL).orElseThrow();
+
+            receiver.publish(List.of(new UserInvalidation("own@gmail.com", null)));
+            sender.publish(List.of(new UserInvalidation(EMAIL, user.getId()), new UserInvalidation("maria@gmail.com", null)));
+
+            assertEquals(new UserInvalidation(EMAIL, user.getId()), received.poll(10, TimeUnit.SECONDS));
+            assertEquals(new UserInvalidation("maria@gmail.com", null), received.poll(10, TimeUnit.SECONDS));
+        } finally {
+            receiver.stop();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.codenomads.springrestapidemo.controller;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.model.UserChangeType;
+import com.codenomads.springrestapidemo.service.UserChangeOutbox;
+import com.codenomads.springrestapidemo.utils.JsonUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.transaction.IllegalTransactionStateException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+/**
+ * Not transactional: changes are only streamed once the transaction that made them has
+ * committed. Every test works on its own email and ends with the user deleted.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = SpringRestApiDemoApplication.class)
+@AutoConfigureMockMvc
+class UserChangeFeedTest {
+
+    private static final String USERS_PATH = "/users";
+    private static final String CHANGES_PATH = USERS_PATH + "/changes";
+    private static final String INSERT_CHANGE = """
+            INSERT INTO user_changes (id, type, email, name, version, occurred_at)
+            VALUES (nextval('user_changes_seq'), 'CREATED', ?, 'Late', 0, now())""";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JsonUtils jsonUtils;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private UserChangeOutbox userChangeOutbox;
+
+    @Test
+    void shouldStreamChangesLiveInOffsetOrder() throws Exception {
+        String email = "hans@gmail.com";
+        MvcResult subscription = subscribe(get(CHANGES_PATH));
+        Event position = awaitEvents(subscription, email, 0).get(0);
+
+        createUpdateAndDelete(email);
+
+        List<Event> events = awaitEvents(subscription, email, 3);
+        assertEquals("POSITION", position.name());
+        assertEquals(List.of("CREATED", "UPDATED", "DELETED"), events.stream().skip(1).map(Event::name).toList());
+        assertTrue(position.id() < events.get(1).id());
+        assertTrue(events.get(1).id() < events.get(2).id());
+        assertTrue(events.get(2).id() < events.get(3).id());
+        assertEquals("Hansi", events.get(2).data().get("name").asText());
+        assertEquals("1994-11-02", events.get(2).data().get("birthDate").asText());
+        assertEquals(1, events.get(2).data().get("version").asLong());
+        assertFalse(events.get(3).data().has("name"));
+    }
+
+    @Test
+    void shouldResumeAfterLastEventId() throws Exception {
+        String email = "maria@gmail.com";
+        MvcResult subscription = subscribe(get(CHANGES_PATH));
+        awaitEvents(subscription, email, 0);
+        createUpdateAndDelete(email);
+        long created = awaitEvents(subscription, email, 3).get(1).id();
+
+        MvcResult resumed = subscribe(get(CHANGES_PATH).header("Last-Event-ID", created));
+
+        List<Event> events = awaitEvents(resumed, email, 2);
+        assertEquals(created, events.get(0).id());
+        assertEquals(List.of("POSITION", "UPDATED", "DELETED"), events.stream().map(Event::name).toList());
+    }
+
+    @Test
+    void shouldStreamChangeCommittedAfterGapTimeout() throws Exception {
+        String email = "sophie@gmail.com";
+        String lateEmail = "late@gmail.com";
+        MvcResult subscription = subscribe(get(CHANGES_PATH));
+        awaitEvents(subscription, email, 0);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_CHANGE)) {
+                insert.setString(1, lateEmail);
+                insert.executeUpdate();
+            }
+            createUpdateAndDelete(email);
+            awaitEvents(subscription, email, 3);
+            connection.commit();
+        }
+
+        List<Event> events = awaitEvents(subscription, lateEmail, 1);
+        long created = awaitEvents(subscription, email, 3).get(1).id();
+        assertEquals("CREATED", events.get(1).name());
+        assertTrue(events.get(1).id() < created);
+
+        MvcResult resumed = subscribe(get(CHANGES_PATH).header("Last-Event-ID", created));
+
+        assertEquals(events.get(1).id(), awaitEvents(resumed, lateEmail, 1).get(1).id());
+    }
+
+    @Test
+    void shouldRefuseToRecordChangesOutsideTransaction() {
+        User user = User.builder().name("Hans").email("outside@gmail.com").version(0L).build();
+
+        assertThrows(IllegalTransactionStateException.class,
+                () -> userChangeOutbox.record(UserChangeType.CREATED, user));
+    }
+
+    private void createUpdateAndDelete(String email) throws Exception {
+        for (String name : List.of("Hans", "Hansi")) {
+            UserDto user = new UserDto(name, email,
+                    LocalDate.parse(name.equals("Hans") ? "1993-11-02" : "1994-11-02"));
+            mockMvc.perform(put(USERS_PATH)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(jsonUtils.asJsonString(user)))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+        }
+        mockMvc.perform(delete(USERS_PATH + "/" + email))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    private MvcResult subscribe(MockHttpServletRequestBuilder request) throws Exception {
+        return mockMvc.perform(request.accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+    }
+
+    /**
+     * Waits for the position event and the given number of changes of the email.
+     */
+    private List<Event> awaitEvents(MvcResult subscription, String email, int changes) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            List<Event> events = parse(subscription.getResponse().getContentAsString()).stream()
+                    .filter(event -> event.name().equals("POSITION") || email.equals(event.data().path("email").asText()))
+                    .toList();
+            if (events.size() >= changes + 1) {
+                return events;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                return fail("Expected %d changes of '%s' but got %s".formatted(changes, email, events));
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private List<Event> parse(String stream) throws Exception {
+        List<Event> events = new ArrayList<>();
+        for (String block : stream.split("\n\n")) {
+            Long id = null;
+            String name = null;
+            JsonNode data = null;
+            for (String line : block.split("\n")) {
+                if (line.startsWith("id:")) {
+                    id = Long.parseLong(line.substring(3));
+                } else if (line.startsWith("event:")) {
+                    name = line.substring(6);
+                } else if (line.startsWith("data:")) {
+                    data = objectMapper.readTree(line.substring(5));
+                }
+            }
+            if (id != null) {
+                events.add(new Event(id, name, data));
+            }
+        }
+        return events;
+    }
+
+    private record Event(long id, String name, JsonNode data) {
+    }
+}
@@ -1,16 +1,28 @@
 package com.codenomads.springrestapidemo.controller;
 
 import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.cache.LoopbackUserInvalidationChannel;
+import com.codenomads.springrestapidemo.cache.UserCache;
+import com.codenomads.springrestapidemo.cache.UserInvalidation;
+import com.codenomads.springrestapidemo.configuration.JacksonConfiguration;
+import com.codenomads.springrestapidemo.configuration.UserBatchProperties;
 import com.codenomads.springrestapidemo.dto.UserDto;
 import com.codenomads.springrestapidemo.model.User;
 import com.codenomads.springrestapidemo.repository.UserRepository;
 import com.codenomads.springrestapidemo.utils.JsonUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
@@ -18,7 +30,14 @@ import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
 import javax.transaction.Transactional;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -42,6 +61,23 @@ class UserControllerTest {
     @Autowired
     private JsonUtils jsonUtils;
 
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private LoopbackUserInvalidationChannel userInvalidationChannel;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void clearUserCache() {
+        userCache.invalidateAll();
+    }
+
     @Test
     void shouldRetrieveUserForExistingEmail() throws Exception {
         String name = "Hans";
@@ -193,6 +229,24 @@ class UserControllerTest {
         assertEquals(birthDate, savedUser.getBirthDate());
     }
 
+    @Test
+    void shouldCreateNewUserWithPutCallWithoutBirthDate() throws Exception {
+        String email = "hans@gmail.com";
+        UserDto request = UserDto.builder()
+                .name("Hans")
+                .email(email)
+                .build();
+
+        mockMvc.perform(put(USERS_PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(request)))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        User savedUser = userRepository.findByEmail(email).orElseThrow();
+        assertEquals("Hans", savedUser.getName());
+        assertNull(savedUser.getBirthDate());
+    }
+
     @Test
     void shouldDeleteUserForExistingEmail() throws Exception {
         String name = "Hans";
@@ -237,4 +291,524 @@ class UserControllerTest {
         assertEquals(USER_NOT_FOUND_TEXT_FORMAT.formatted(nonExistentEmail),
                 resultActions.andReturn().getResponse().getErrorMessage());
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldServeRepeatedLookupsFromCache() throws Exception {
+        String email = "hans@gmail.com";
+        User user = User.builder()
+                .name("Hans")
+                .email(email)
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build();
+
+        userRepository.save(user);
+
+        mockMvc.perform(get(USERS_PATH + "/" + email)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        userRepository.delete(user);
+        userRepository.flush();
+
+        ResultActions resultActions = mockMvc.perform(get(USERS_PATH + "/" + email)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        UserDto response = jsonUtils.deserializeResult(resultActions, UserDto.class);
+        assertEquals(email, response.getEmail());
+    }
+
+    @Test
+    void shouldCacheNotFoundLookups() throws Exception {
+        String email = "hans@gmail.com";
+
+        mockMvc.perform(get(USERS_PATH + "/" + email)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        userRepository.save(User.builder()
+                .name("Hans")
+                .email(email)
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+
+        mockMvc.perform(get(USERS_PATH + "/" + email)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    @Test
+    void shouldRetrieveSortedPageOfUsers() throws Exception {
+        for (String name : new String[]{"Bert", "Carla", "Anna"}) {
+            userRepository.save(User.builder()
+                    .name(name)
+                    .email(name.toLowerCase() + "@gmail.com")
+                    .birthDate(LocalDate.parse("1993-11-02"))
+                    .build());
+        }
+
+        mockMvc.perform(get(USERS_PATH)
+                        .param("size", "2")
+                        .param("sort", "name,desc")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.totalElements").value(3))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].name").value("Carla"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[1].birthDate").value("1993-11-02"));
+    }
+
+    @Test
+    void shouldWalkAllUsersWithKeysetCursor() throws Exception {
+        for (String email : new String[]{"carla@gmail.com", "anna@gmail.com", "bert@gmail.com"}) {
+            userRepository.save(User.builder()
+                    .name("Hans")
+                    .email(email)
+                    .birthDate(LocalDate.parse("1993-11-02"))
+                    .build());
+        }
+
+        ResultActions firstSlice = mockMvc.perform(get(USERS_PATH + "/keyset")
+                        .param("size", "2")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].email").value("anna@gmail.com"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[1].email").value("bert@gmail.com"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.hasNext").value(true));
+
+        String cursor = JsonPath.read(firstSlice.andReturn().getResponse().getContentAsString(), "$.nextCursor");
+
+        mockMvc.perform(get(USERS_PATH + "/keyset")
+                        .param("size", "2")
+                        .param("cursor", cursor)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].email").value("carla@gmail.com"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.hasNext").value(false))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    void shouldRejectKeysetSortOnNonKeyProperty() throws Exception {
+        mockMvc.perform(get(USERS_PATH + "/keyset")
+                        .param("sort", "name")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void shouldExportAllUsersAsNdjson() throws Exception {
+        userRepository.save(User.builder()
+                .name("Hans")
+                .email("hans@gmail.com")
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+        userRepository.save(User.builder()
+                .name("Maria")
+                .email("maria@gmail.com")
+                .birthDate(LocalDate.parse("1999-11-02"))
+                .build());
+
+        String content = mockMvc.perform(get(USERS_PATH + "/export")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = content.split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("Hans", JsonPath.read(lines[0], "$.name"));
+        assertEquals("1999-11-02", JsonPath.read(lines[1], "$.birthDate"));
+    }
+
+    @Test
+    void shouldExportAllUsersAsCsv() throws Exception {
+        userRepository.save(User.builder()
+                .name("Hans, Jr.")
+                .email("hans@gmail.com")
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+
+        String content = mockMvc.perform(get(USERS_PATH + "/export")
+                        .accept("text/csv"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertEquals("name,email,birthDate\r\n\"Hans, Jr.\",hans@gmail.com,1993-11-02\r\n", content);
+    }
+
+    @Test
+    void shouldCreateUsersInBatchAndReportFailuresPerItem() throws Exception {
+        userRepository.save(User.builder()
+                .name("Hans")
+                .email("hans@gmail.com")
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+
+        List<UserDto> request = List.of(
+                UserDto.builder().name("Maria").email("maria@gmail.com").birthDate(LocalDate.parse("1999-11-02")).build(),
+                UserDto.builder().name("Invalid").email("not-an-email").build(),
+                UserDto.builder().name("Hans").email("hans@gmail.com").build(),
+                UserDto.builder().name("Maria").email("maria@gmail.com").build());
+
+        mockMvc.perform(post(USERS_PATH + "/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(request)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.succeeded").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.failed").value(3))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.items[0].status").value("CREATED"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.items[1].status").value("FAILED"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.items[2].error").value("User already exists."))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.items[3].error").value("Duplicate email in batch."));
+
+        User savedUser = userRepository.findByEmail("maria@gmail.com").orElseThrow();
+        assertEquals(LocalDate.parse("1999-11-02"), savedUser.getBirthDate());
+        assertEquals(2, userRepository.count());
+    }
+
+    @Test
+    void shouldCreateOrUpdateUsersInBatch() throws Exception {
+        userRepository.save(User.builder()
+                .name("Hans")
+                .email("hans@gmail.com")
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+
+        List<UserDto> request = List.of(
+                UserDto.builder().name("Hansi").email("hans@gmail.com").birthDate(LocalDate.parse("1994-11-02")).build(),
+                UserDto.builder().name("Maria").email("maria@gmail.com").birthDate(LocalDate.parse("1999-11-02")).build());
+
+        mockMvc.perform(put(USERS_PATH + "/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(request)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.succeeded").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.items[0].status").value("UPDATED"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.items[1].status").value("CREATED"));
+
+        User updatedUser = userRepository.findByEmail("hans@gmail.com").orElseThrow();
+        assertEquals("Hansi", updatedUser.getName());
+        assertEquals(LocalDate.parse("1994-11-02"), updatedUser.getBirthDate());
+        assertTrue(userRepository.findByEmail("maria@gmail.com").isPresent());
+    }
+
+    @Test
+    void shouldDeleteAllUsersForGivenEmails() throws Exception {
+        for (String email : new String[]{"hans@gmail.com", "maria@gmail.com", "anna@gmail.com"}) {
+            userRepository.save(User.builder()
+                    .name("Hans")
+                    .email(email)
+                    .birthDate(LocalDate.parse("1993-11-02"))
+                    .build());
+        }
+
+        List<String> request = List.of("hans@gmail.com", "maria@gmail.com", "hans69@gmail.com", "hans@gmail.com");
+
+        mockMvc.perform(delete(USERS_PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(request)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.requested").value(3))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.deleted").value(2));
+
+        assertTrue(userRepository.findByEmail("hans@gmail.com").isEmpty());
+        assertTrue(userRepository.findByEmail("maria@gmail.com").isEmpty());
+        assertTrue(userRepository.findByEmail("anna@gmail.com").isPresent());
+    }
+
+    @Test
+    void shouldRejectDeletingUsersForMalformedEmails() throws Exception {
+        List<String> request = List.of("hans@gmail.com", "not-an-email");
+
+        mockMvc.perform(delete(USERS_PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(request)))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void shouldRejectBatchOfMoreThanMaximumItems() throws Exception {
+        List<UserDto> request = Collections.nCopies(UserBatchProperties.MAXIMUM_ITEMS + 1,
+                UserDto.builder().name("Hans").email("hans@gmail.com").build());
+
+        mockMvc.perform(post(USERS_PATH + "/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(request)))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void shouldCountNotFoundLookups() throws Exception {
+        double notFoundBefore = meterRegistry.counter("users.not.found").count();
+
+        mockMvc.perform(get(USERS_PATH + "/hans69@gmail.com")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+        mockMvc.perform(delete(USERS_PATH + "/hans69@gmail.com")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        assertEquals(notFoundBefore + 2, meterRegistry.counter("users.not.found").count());
+        assertNotNull(meterRegistry.find("users.service")
+                .tag("method", "getUserByEmail")
+                .timer());
+    }
+
+    @Test
+    void shouldAnswerConditionalGetWithNotModified() throws Exception {
+        String email = "hans@gmail.com";
+        userRepository.save(User.builder()
+                .name("Hans")
+                .email(email)
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+
+        String eTag = mockMvc.perform(get(USERS_PATH + "/" + email)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.LAST_MODIFIED))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+
+        mockMvc.perform(get(USERS_PATH + "/" + email)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(MockMvcResultMatchers.content().string(""));
+        mockMvc.perform(get(USERS_PATH + "/" + email)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"stale\""))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    @Test
+    void shouldChangePageETagWhenAUserOnItChanges() throws Exception {
+        for (String email : List.of("anna@gmail.com", "hans@gmail.com")) {
+            userRepository.save(User.builder()
+                    .name("Hans")
+                    .email(email)
+                    .birthDate(LocalDate.parse("1993-11-02"))
+                    .build());
+        }
+
+        String eTag = mockMvc.perform(get(USERS_PATH).param("sort", "email"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get(USERS_PATH).param("sort", "email")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified());
+
+        mockMvc.perform(put(USERS_PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(new UserDto("Anna", "anna@gmail.com", null))))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        mockMvc.perform(get(USERS_PATH).param("sort", "email")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].name").value("Anna"));
+    }
+
+    @Test
+    void shouldRejectPutWithStaleIfMatch() throws Exception {
+        String email = "hans@gmail.com";
+        userRepository.save(User.builder()
+                .name("Hans")
+                .email(email)
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+
+        String eTag = mockMvc.perform(get(USERS_PATH + "/" + email))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        String updatedETag = mockMvc.perform(put(USERS_PATH)
+                        .header(HttpHeaders.IF_MATCH, eTag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(new UserDto("Hansi", email, null))))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.name").value("Hansi"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(eTag, updatedETag);
+
+        mockMvc.perform(put(USERS_PATH)
+                        .header(HttpHeaders.IF_MATCH, eTag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(new UserDto("Hans", email, null))))
+                .andExpect(MockMvcResultMatchers.status().isPreconditionFailed());
+        mockMvc.perform(put(USERS_PATH)
+                        .header(HttpHeaders.IF_MATCH, "*")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(new UserDto("Hans", "hans69@gmail.com", null))))
+                .andExpect(MockMvcResultMatchers.status().isPreconditionFailed());
+
+        assertEquals("Hansi", userRepository.findByEmail(email).orElseThrow().getName());
+    }
+
+    @Test
+    void shouldNegotiateSmileForPageOfUsers() throws Exception {
+        userRepository.save(User.builder()
+                .name("Hans")
+                .email("hans@gmail.com")
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+        MediaType smile = MediaType.parseMediaType("application/x-jackson-smile");
+
+        byte[] response = mockMvc.perform(get(USERS_PATH).accept(smile))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(smile))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode page = JacksonConfiguration.smileMapper().readTree(response);
+        assertEquals(1, page.get("totalElements").asInt());
+        assertEquals("1993-11-02", page.get("content").get(0).get("birthDate").asText());
+    }
+
+    @Test
+    void shouldCreateNewUserFromCborRequest() throws Exception {
+        ObjectMapper cborMapper = JacksonConfiguration.cborMapper();
+        UserDto request = new UserDto("Hans", "hans@gmail.com", LocalDate.parse("1993-11-02"));
+
+        byte[] response = mockMvc.perform(post(USERS_PATH)
+                        .contentType(MediaType.APPLICATION_CBOR)
+                        .accept(MediaType.APPLICATION_CBOR)
+                        .content(cborMapper.writeValueAsBytes(request)))
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(request, cborMapper.readValue(response, UserDto.class));
+        assertEquals(LocalDate.parse("1993-11-02"),
+                userRepository.findByEmail("hans@gmail.com").orElseThrow().getBirthDate());
+    }
+
+    @Test
+    void shouldInflateGzipRequestBody() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(jsonUtils.asJsonString(List.of(new UserDto("Hans", "hans@gmail.com", null)))
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        mockMvc.perform(post(USERS_PATH + "/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .content(compressed.toByteArray()))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.succeeded").value(1));
+
+        assertTrue(userRepository.findByEmail("hans@gmail.com").isPresent());
+    }
+
+    @Test
+    void shouldAnswerUnknownEmailsFromFilter() throws Exception {
+        String email = "never-stored@gmail.com";
+        double shortCircuitsBefore = meterRegistry.counter("users.email.filter.short.circuits").count();
+
+        mockMvc.perform(get(USERS_PATH + "/" + email))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+        mockMvc.perform(delete(USERS_PATH + "/" + email))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        assertEquals(shortCircuitsBefore + 2, meterRegistry.counter("users.email.filter.short.circuits").count());
+    }
+
+    @Test
+    void shouldRejectCreatingUserWithTakenEmail() throws Exception {
+        UserDto request = new UserDto("Hans", "hans@gmail.com", LocalDate.parse("1993-11-02"));
+        userRepository.save(User.builder()
+                .name(request.getName())
+                .email(request.getEmail())
+                .build());
+
+        ResultActions resultActions = mockMvc.perform(post(USERS_PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(request)))
+                .andExpect(MockMvcResultMatchers.status().isConflict());
+
+        assertEquals("User with email 'hans@gmail.com' already exists.",
+                resultActions.andReturn().getResponse().getErrorMessage());
+    }
+
+    @Test
+    void shouldRejectCreatingUserWithEmailUnknownToFilter() throws Exception {
+        UserDto request = new UserDto("Hans", "hans@gmail.com", LocalDate.parse("1993-11-02"));
+        insertAsAnotherInstance(request.getEmail());
+
+        mockMvc.perform(post(USERS_PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonUtils.asJsonString(request)))
+                .andExpect(MockMvcResultMatchers.status().isConflict());
+    }
+
+    @Test
+    void shouldFindUserCreatedByAnotherInstanceOnceBroadcast() throws Exception {
+        String email = "elsewhere@gmail.com";
+        insertAsAnotherInstance(email);
+        mockMvc.perform(get(USERS_PATH + "/" + email))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        userInvalidationChannel.receive(Set.of(new UserInvalidation(email, null)));
+
+        mockMvc.perform(get(USERS_PATH + "/" + email))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    @Test
+    void shouldSearchUsersByNameAndBirthDateRange() throws Exception {
+        userRepository.save(User.builder().name("Hans").email("hans@gmail.com").birthDate(LocalDate.parse("1993-11-02")).build());
+        userRepository.save(User.builder().name("hansi").email("hansi@gmail.com").birthDate(LocalDate.parse("1995-01-01")).build());
+        userRepository.save(User.builder().name("Hanna").email("hanna@gmail.com").birthDate(LocalDate.parse("1994-06-01")).build());
+        userRepository.save(User.builder().name("Hans").email("old@gmail.com").birthDate(LocalDate.parse("1960-01-01")).build());
+        userRepository.save(User.builder().name("Maria").email("maria@gmail.com").birthDate(LocalDate.parse("1994-06-01")).build());
+
+        ResultActions firstSlice = mockMvc.perform(get(USERS_PATH + "/search")
+                        .param("name", "HAN")
+                        .param("birthDateFrom", "1990-01-01")
+                        .param("birthDateTo", "1999-12-31")
+                        .param("size", "2"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].email").value("hanna@gmail.com"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[1].email").value("hans@gmail.com"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.hasNext").value(true));
+
+        String cursor = JsonPath.read(firstSlice.andReturn().getResponse().getContentAsString(), "$.nextCursor");
+
+        mockMvc.perform(get(USERS_PATH + "/search")
+                        .param("name", "HAN")
+                        .param("birthDateFrom", "1990-01-01")
+                        .param("birthDateTo", "1999-12-31")
+                        .param("size", "2")
+                        .param("cursor", cursor))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].email").value("hansi@gmail.com"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.hasNext").value(false));
+    }
+
+    @Test
+    void shouldSearchUsersByEmailPrefixTreatingWildcardsLiterally() throws Exception {
+        userRepository.save(User.builder().name("Hans").email("hans_1@gmail.com").build());
+        userRepository.save(User.builder().name("Hans").email("hansx1@gmail.com").build());
+
+        mockMvc.perform(get(USERS_PATH + "/search").param("emailPrefix", "hans_"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].email").value("hans_1@gmail.com"));
+    }
+
+    @Test
+    void shouldRejectSearchWithInvertedBirthDateRange() throws Exception {
+        mockMvc.perform(get(USERS_PATH + "/search")
+                        .param("birthDateFrom", "2000-01-01")
+                        .param("birthDateTo", "1990-01-01"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    /**
+     * Inserts the user without going through this instance, so its email filter does not
+     * learn the email.
+     */
+    private void insertAsAnotherInstance(String email) {
+        jdbcTemplate.update("insert into users (id, name, email, version, last_modified) values (?, ?, ?, 0, now())",
+                UUID.randomUUID(), "Elsewhere", email);
+    }
+}
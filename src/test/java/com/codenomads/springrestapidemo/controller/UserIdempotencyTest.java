@@ -0,0 +1,160 @@
+package com.codenomads.springrestapidemo.controller;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.idempotency.IdempotencyStore;
+import com.codenomads.springrestapidemo.model.IdempotencyRecord;
+import com.codenomads.springrestapidemo.repository.IdempotencyRecordRepository;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import com.codenomads.springrestapidemo.utils.JsonUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Not transactional: the first request and its retries run in transactions of their own,
+ * so rows are committed and removed again after each test.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = SpringRestApiDemoApplication.class)
+@AutoConfigureMockMvc
+class UserIdempotencyTest {
+
+    private static final String USERS_PATH = "/users";
+    private static final UserDto HANS = new UserDto("Hans", "hans@gmail.com", LocalDate.parse("1993-11-02"));
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private JsonUtils jsonUtils;
+
+    @AfterEach
+    void deleteUsersAndKeys() {
+        userRepository.deleteAll(userRepository.findByEmailIn(List.of(HANS.getEmail())));
+        idempotencyRecordRepository.deleteAll();
+        idempotencyStore.invalidateAll();
+    }
+
+    @Test
+    void shouldReplayFirstResponseToRetry() throws Exception {
+        createUser("key-1", HANS)
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andExpect(MockMvcResultMatchers.header().doesNotExist(IdempotencyStore.REPLAYED_HEADER));
+
+        ResultActions retry = createUser("key-1", HANS)
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andExpect(MockMvcResultMatchers.header().string(IdempotencyStore.REPLAYED_HEADER, "true"));
+
+        assertEquals(HANS, jsonUtils.deserializeResult(retry, UserDto.class));
+        createUser("key-2", HANS)
+                .andExpect(MockMvcResultMatchers.status().isConflict());
+    }
+
+    @Test
+    void shouldReplayFromTableOnceEvictedFromMemory() throws Exception {
+        createUser("key-1", HANS)
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        idempotencyStore.invalidateAll();
+
+        ResultActions retry = createUser("key-1", HANS)
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andExpect(MockMvcResultMatchers.header().string(IdempotencyStore.REPLAYED_HEADER, "true"));
+
+        assertEquals(HANS, jsonUtils.deserializeResult(retry, UserDto.class));
+    }
+
+    @Test
+    void shouldRejectKeyReusedForDifferentRequest() throws Exception {
+        createUser("key-1", HANS)
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+
+        createUser("key-1", new UserDto("Hansi", HANS.getEmail(), HANS.getBirthDate()))
+                .andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
+    }
+
+    @Test
+    void shouldReleaseKeyOfFailedRequest() throws Exception {
+        createUser("key-1", HANS)
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        createUser("key-2", HANS)
+                .andExpect(MockMvcResultMatchers.status().isConflict());
+
+        assertFalse(idempotencyRecordRepository.existsById("127.0.0.1 key-2"));
+    }
+
+    @Test
+    void shouldTakeOverExpiredClaimOfCrashedRequest() throws Exception {
+        Instant claimed = Instant.now().minus(Duration.ofHours(1));
+        idempotencyRecordRepository.save(IdempotencyRecord.builder()
+                .id("127.0.0.1 key-1")
+                .fingerprint("crashed")
+                .createdAt(claimed)
+                .claimedUntil(claimed.plus(Duration.ofMinutes(2)))
+                .build());
+
+        createUser("key-1", HANS)
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andExpect(MockMvcResultMatchers.header().doesNotExist(IdempotencyStore.REPLAYED_HEADER));
+
+        assertEquals(201, idempotencyRecordRepository.findById("127.0.0.1 key-1").orElseThrow().getStatus());
+    }
+
+    @Test
+    void shouldCreateUserOnceForConcurrentDuplicates() throws Exception {
+        int duplicates = 16;
+        List<Future<MvcResult>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(duplicates)) {
+            Callable<MvcResult> request = () -> createUser("key-1", HANS).andReturn();
+            for (int i = 0; i < duplicates; i++) {
+                results.add(executor.submit(request));
+            }
+        }
+
+        int replayed = 0;
+        for (Future<MvcResult> result : results) {
+            assertEquals(201, result.get().getResponse().getStatus());
+            replayed += result.get().getResponse().containsHeader(IdempotencyStore.REPLAYED_HEADER) ? 1 : 0;
+        }
+        assertEquals(duplicates - 1, replayed);
+        assertEquals(1, userRepository.findByEmailIn(List.of(HANS.getEmail())).size());
+    }
+
+    private ResultActions createUser(String idempotencyKey, UserDto user) throws Exception {
+        return mockMvc.perform(post(USERS_PATH)
+                .header(IdempotencyStore.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonUtils.asJsonString(user)));
+    }
+}
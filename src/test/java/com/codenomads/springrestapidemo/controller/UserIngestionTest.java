@@ -0,0 +1,144 @@
+package com.codenomads.springrestapidemo.controller;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.dto.IngestionStatus;
+import com.codenomads.springrestapidemo.dto.IngestionStatusDto;
+import com.codenomads.springrestapidemo.dto.UserDto;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import com.codenomads.springrestapidemo.service.UserIngestionService;
+import com.codenomads.springrestapidemo.utils.JsonUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Not transactional: ingested users are written by the writer thread in its own
+ * transactions, so rows are committed and removed again after each test.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = SpringRestApiDemoApplication.class)
+@AutoConfigureMockMvc
+class UserIngestionTest {
+
+    private static final String USERS_PATH = "/users";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserIngestionService userIngestionService;
+
+    @Autowired
+    private JsonUtils jsonUtils;
+
+    @AfterEach
+    void deleteUsers() {
+        userRepository.deleteAll(userRepository.findByEmailIn(List.of("hans@gmail.com", "maria@gmail.com")));
+    }
+
+    @Test
+    void shouldAcceptUserAndCreateItInTheBackground() throws Exception {
+        UserDto request = new UserDto("Hans", "hans@gmail.com", LocalDate.parse("1993-11-02"));
+
+        ResultActions resultActions = submit(request)
+                .andExpect(MockMvcResultMatchers.status().isAccepted())
+                .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.LOCATION))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.status").value("PENDING"));
+        IngestionStatusDto accepted = jsonUtils.deserializeResult(resultActions, IngestionStatusDto.class);
+
+        IngestionStatusDto completed = awaitCompletion(accepted);
+
+        assertEquals(IngestionStatus.CREATED, completed.getStatus());
+        assertEquals(LocalDate.parse("1993-11-02"),
+                userRepository.findByEmail("hans@gmail.com").orElseThrow().getBirthDate());
+    }
+
+    @Test
+    void shouldReportConflictThroughStatus() throws Exception {
+        userRepository.save(User.builder()
+                .name("Maria")
+                .email("maria@gmail.com")
+                .build());
+        UserDto request = new UserDto("Hans", "maria@gmail.com", null);
+
+        ResultActions resultActions = submit(request)
+                .andExpect(MockMvcResultMatchers.status().isAccepted());
+        IngestionStatusDto accepted = jsonUtils.deserializeResult(resultActions, IngestionStatusDto.class);
+
+        IngestionStatusDto completed = awaitCompletion(accepted);
+
+        assertEquals(IngestionStatus.FAILED, completed.getStatus());
+        assertEquals("User already exists.", completed.getError());
+        assertEquals("Maria", userRepository.findByEmail("maria@gmail.com").orElseThrow().getName());
+    }
+
+    @Test
+    void shouldReportStatusThroughInstanceThatDidNotAcceptUser() throws Exception {
+        UserDto request = new UserDto("Hans", "hans@gmail.com", null);
+        IngestionStatusDto accepted = jsonUtils.deserializeResult(submit(request)
+                .andExpect(MockMvcResultMatchers.status().isAccepted()), IngestionStatusDto.class);
+        awaitCompletion(accepted);
+
+        userIngestionService.invalidateAll();
+
+        ResultActions resultActions = mockMvc.perform(get(USERS_PATH + "/ingestion/" + accepted.getTrackingId()))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        IngestionStatusDto status = jsonUtils.deserializeResult(resultActions, IngestionStatusDto.class);
+        assertEquals(new IngestionStatusDto(accepted.getTrackingId(), "hans@gmail.com", IngestionStatus.CREATED, null), status);
+    }
+
+    @Test
+    void shouldReportRecentTrackingIdWithoutOutcomeAsPending() throws Exception {
+        UUID handedOutNow = new UUID(System.currentTimeMillis() << 16 | 0x7000, 0x8000_0000_0000_0000L);
+
+        ResultActions resultActions = mockMvc.perform(get(USERS_PATH + "/ingestion/" + handedOutNow))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        assertEquals(IngestionStatusDto.pending(handedOutNow, null),
+                jsonUtils.deserializeResult(resultActions, IngestionStatusDto.class));
+        mockMvc.perform(get(USERS_PATH + "/ingestion/" + UUID.randomUUID()))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    private ResultActions submit(UserDto request) throws Exception {
+        return mockMvc.perform(post(USERS_PATH)
+                .header("Prefer", "respond-async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonUtils.asJsonString(request)));
+    }
+
+    private IngestionStatusDto awaitCompletion(IngestionStatusDto accepted) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            ResultActions resultActions = mockMvc.perform(get(USERS_PATH + "/ingestion/" + accepted.getTrackingId()))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+            IngestionStatusDto status = jsonUtils.deserializeResult(resultActions, IngestionStatusDto.class);
+            if (status.getStatus() != IngestionStatus.PENDING) {
+                return status;
+            }
+            Thread.sleep(50);
+        }
+        return fail("Ingestion of '%s' did not complete.".formatted(accepted.getEmail()));
+    }
+}
@@ -0,0 +1,134 @@
+package com.codenomads.springrestapidemo.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Uses embedded H2 databases as primary and replicas, each knowing its own name.
+ */
+class ReadWriteRoutingDataSourceTest {
+
+    private static final Duration READ_YOUR_WRITES_WINDOW = Duration.ofMinutes(1);
+    private static final Duration HEALTH_CHECK_INTERVAL = Duration.ofHours(1);
+
+    private ReadWriteRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readOnlyTransactionTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    void destroyRoutingDataSource() throws Exception {
+        routingDataSource.destroy();
+    }
+
+    @Test
+    void shouldSendReadWriteTransactionsToPrimary() {
+        route(List.of(database("replica-1")));
+
+        assertEquals("primary", transactionTemplate.execute(status -> currentDatabase()));
+    }
+
+    @Test
+    void shouldSpreadReadOnlyTransactionsOverReplicasRoundRobin() {
+        route(List.of(database("replica-1"), database("replica-2")));
+
+        List<String> databases = List.of(read(), read(), read(), read());
+
+        assertEquals(List.of("replica-1", "replica-2", "replica-1", "replica-2"), databases);
+    }
+
+    @Test
+    void shouldReadFromPrimaryAfterOwnWrite() {
+        route(List.of(database("replica-1")));
+
+        CallerContext.open("writer");
+        try {
+            transactionTemplate.executeWithoutResult(status -> currentDatabase());
+            assertEquals("primary", read());
+        } finally {
+            assertTrue(CallerContext.close());
+        }
+
+        CallerContext.open("reader");
+        try {
+            assertEquals("replica-1", read());
+        } finally {
+            assertFalse(CallerContext.close());
+        }
+    }
+
+    @Test
+    void shouldReadFromPrimaryWithoutCountingAsWrite() {
+        route(List.of(database("replica-1")));
+
+        CallerContext.open("reader");
+        try {
+            assertEquals("primary", readOnlyTransactionTemplate.execute(status ->
+                    ReadWriteRoutingDataSource.readFromPrimary(this::currentDatabase)));
+            assertEquals("replica-1", read());
+        } finally {
+            assertFalse(CallerContext.close());
+        }
+    }
+
+    @Test
+    void shouldExcludeUnreachableReplica() {
+        route(List.of(new DriverManagerDataSource("jdbc:h2:mem:unreachable;IFEXISTS=TRUE"), database("replica-1")));
+
+        assertEquals("primary", read());
+        assertEquals(List.of("replica-1", "replica-1"), List.of(read(), read()));
+
+        routingDataSource.checkReplicas();
+
+        assertEquals("replica-1", read());
+    }
+
+    @Test
+    void shouldFallBackToPrimaryWithoutHealthyReplica() {
+        route(List.of(new DriverManagerDataSource("jdbc:h2:mem:unreachable;IFEXISTS=TRUE")));
+
+        routingDataSource.checkReplicas();
+
+        assertEquals(List.of("primary", "primary"), List.of(read(), read()));
+    }
+
+    private void route(List<DataSource> replicas) {
+        routingDataSource = new ReadWriteRoutingDataSource(
+                database("primary"), replicas, READ_YOUR_WRITES_WINDOW, HEALTH_CHECK_INTERVAL);
+        routingDataSource.afterPropertiesSet();
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    private String read() {
+        return readOnlyTransactionTemplate.execute(status -> currentDatabase());
+    }
+
+    private String currentDatabase() {
+        return jdbcTemplate.queryForObject("select name from node", String.class);
+    }
+
+    private static DataSource database(String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table if not exists node (name varchar(20))");
+        jdbcTemplate.update("delete from node");
+        jdbcTemplate.update("insert into node (name) values (?)", name);
+        return dataSource;
+    }
+}
@@ -0,0 +1,201 @@
+package com.codenomads.springrestapidemo.ratelimit;
+
+import com.codenomads.springrestapidemo.configuration.UserRateLimitProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitInterceptorTest {
+
+    private static final double NO_REFILL = 0.0001;
+
+    private UserRateLimitProperties properties;
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void createProperties() {
+        properties = new UserRateLimitProperties();
+        properties.setReads(new UserRateLimitProperties.Limit(NO_REFILL, 2));
+        properties.setWrites(new UserRateLimitProperties.Limit(NO_REFILL, 2));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void shouldRejectClientOnceItsBucketIsEmpty() throws Exception {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(properties, meterRegistry);
+
+        assertTrue(handle(interceptor, "GET", "getUser", "client-1").passed());
+        assertTrue(handle(interceptor, "GET", "getUser", "client-1").passed());
+        Result rejected = handle(interceptor, "GET", "getUser", "client-1");
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.status());
+        assertTrue(Long.parseLong(rejected.retryAfter()) > 1);
+        assertTrue(handle(interceptor, "GET", "getUser", "client-2").passed());
+        assertTrue(handle(interceptor, "PUT", "updateUser", "client-1").passed());
+    }
+
+    @Test
+    void shouldIgnoreClientIdHeader() throws Exception {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(properties, meterRegistry);
+
+        for (String clientId : List.of("a", "b")) {
+            assertTrue(handle(interceptor, "GET", "getUser", "client-1", request -> request.addHeader("X-Client-Id", clientId)).passed());
+        }
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, handle(interceptor, "GET", "getUser", "client-1",
+                request -> request.addHeader("X-Client-Id", "c")).status());
+    }
+
+    @Test
+    void shouldIdentifyAuthenticatedClientByPrincipal() throws Exception {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(properties, meterRegistry);
+        Principal hans = () -> "hans";
+
+        assertTrue(handle(interceptor, "GET", "getUser", "client-1", request -> request.setUserPrincipal(hans)).passed());
+        assertTrue(handle(interceptor, "GET", "getUser", "client-2", request -> request.setUserPrincipal(hans)).passed());
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, handle(interceptor, "GET", "getUser", "client-3",
+                request -> request.setUserPrincipal(hans)).status());
+        assertTrue(handle(interceptor, "GET", "getUser", "client-1").passed());
+    }
+
+    @Test
+    void shouldApplyEndpointLimitInsteadOfWriteLimit() throws Exception {
+        properties.getEndpoints().put("deleteUsers", new UserRateLimitProperties.Limit(NO_REFILL, 1));
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(properties, meterRegistry);
+
+        assertTrue(handle(interceptor, "DELETE", "deleteUsers", "client-1").passed());
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, handle(interceptor, "DELETE", "deleteUsers", "client-1").status());
+        assertTrue(handle(interceptor, "PUT", "updateUser", "client-1").passed());
+    }
+
+    @Test
+    void shouldShedRequestsBeyondConcurrencyLimit() throws Exception {
+        properties.setReads(new UserRateLimitProperties.Limit(1000, 1000));
+        properties.getConcurrency().setInitialLimit(1);
+        properties.getConcurrency().setMinimumLimit(1);
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(properties, meterRegistry);
+
+        Result first = handle(interceptor, "GET", "getUser", "client-1");
+        Result second = handle(interceptor, "GET", "getUser", "client-2");
+        complete(interceptor, first);
+
+        assertTrue(first.passed());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, second.status());
+        assertEquals("1", second.retryAfter());
+        assertTrue(handle(interceptor, "GET", "getUser", "client-2").passed());
+    }
+
+    @Test
+    void shouldShedRequestsWhileConnectionsArePending() throws Exception {
+        properties.getConcurrency().setMaximumPendingConnections(5);
+        AtomicInteger pending = meterRegistry.gauge("hikaricp.connections.pending", new AtomicInteger(6));
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(properties, meterRegistry);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, handle(interceptor, "GET", "getUser", "client-1").status());
+
+        pending.set(5);
+
+        assertTrue(handle(interceptor, "GET", "getUser", "client-1").passed());
+    }
+
+    @Test
+    void shouldLowerConcurrencyLimitOnSlowRequestsAndRaiseItOnFastOnes() {
+        UserRateLimitProperties.Concurrency concurrency = properties.getConcurrency();
+        concurrency.setInitialLimit(10);
+        concurrency.setBackoffRatio(0.5);
+        concurrency.setLatencyThreshold(Duration.ofMillis(100));
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(concurrency, 0);
+        long slow = Duration.ofMillis(200).toNanos();
+        long fast = Duration.ofMillis(10).toNanos();
+
+        assertTrue(limit.tryAcquire());
+        limit.release(slow, slow);
+        assertTrue(limit.tryAcquire());
+        limit.release(slow, slow + 1);
+        assertEquals(5, limit.getLimit());
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        assertFalse(limit.tryAcquire());
+        for (int i = 0; i < 5; i++) {
+            limit.release(fast, slow + 2);
+        }
+        assertEquals(5, limit.getLimit());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        for (int i = 0; i < 5; i++) {
+            limit.release(fast, slow + 2);
+        }
+        assertEquals(6, limit.getLimit());
+    }
+
+    private Result handle(RateLimitInterceptor interceptor, String method, String handler, String client)
+            throws NoSuchMethodException {
+        return handle(interceptor, method, handler, client, request -> {
+        });
+    }
+
+    private Result handle(RateLimitInterceptor interceptor,
+                          String method,
+                          String handler,
+                          String client,
+                          Consumer<MockHttpServletRequest> customizer) throws NoSuchMethodException {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/users");
+        request.setRemoteAddr(client);
+        customizer.accept(request);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HandlerMethod handlerMethod = new HandlerMethod(new Handlers(), handler);
+        try {
+            interceptor.preHandle(request, response, handlerMethod);
+            return new Result(null, null, request, response, handlerMethod);
+        } catch (ResponseStatusException e) {
+            return new Result(e.getStatus(), response.getHeader(HttpHeaders.RETRY_AFTER), request, response, handlerMethod);
+        }
+    }
+
+    private static void complete(RateLimitInterceptor interceptor, Result result) {
+        interceptor.afterCompletion(result.request(), result.response(), result.handler(), null);
+    }
+
+    private record Result(HttpStatus status,
+                          String retryAfter,
+                          MockHttpServletRequest request,
+                          MockHttpServletResponse response,
+                          HandlerMethod handler) {
+
+        boolean passed() {
+            return status == null;
+        }
+    }
+
+    private static class Handlers {
+
+        public void getUser() {
+        }
+
+        public void updateUser() {
+        }
+
+        public void deleteUsers() {
+        }
+    }
+}
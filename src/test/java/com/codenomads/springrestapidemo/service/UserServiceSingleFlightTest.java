@@ -0,0 +1,150 @@
+package com.codenomads.springrestapidemo.service;
+
+import com.codenomads.springrestapidemo.SpringRestApiDemoApplication;
+import com.codenomads.springrestapidemo.cache.UserCache;
+import com.codenomads.springrestapidemo.dto.VersionedUserDto;
+import com.codenomads.springrestapidemo.model.User;
+import com.codenomads.springrestapidemo.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Sends a thundering herd of identical reads at the service while each query is slowed
+ * down, so that all of them arrive while the first one is still running.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = SpringRestApiDemoApplication.class)
+class UserServiceSingleFlightTest {
+
+    private static final int HERD_SIZE = 64;
+    private static final long QUERY_MILLIS = 300;
+
+    @SpyBean
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserCache userCache;
+
+    @BeforeEach
+    void slowDownQueries() {
+        // The spy of the repository proxy delegates to it through its default answer.
+        Answer<?> repository = mockingDetails(userRepository).getMockCreationSettings().getDefaultAnswer();
+        Answer<?> slowly = invocation -> {
+            Thread.sleep(QUERY_MILLIS);
+            return repository.answer(invocation);
+        };
+        doAnswer(slowly).when(userRepository).findByEmail(anyString());
+        doAnswer(slowly).when(userRepository).findAllDtos(any(Pageable.class));
+        userCache.invalidateAll();
+    }
+
+    @AfterEach
+    void deleteUsers() {
+        reset(userRepository);
+        userRepository.deleteAll(userRepository.findByEmailIn(List.of("hans@gmail.com", "maria@gmail.com")));
+    }
+
+    @Test
+    void shouldShareOneQueryForConcurrentLookupsOfSameEmail() throws Exception {
+        saveUser("Hans", "hans@gmail.com");
+
+        List<VersionedUserDto> users = herd(() -> userService.getUserByEmail("hans@gmail.com"));
+
+        verify(userRepository, times(1)).findByEmail("hans@gmail.com");
+        users.forEach(user -> assertEquals("Hans", user.getUser().getName()));
+    }
+
+    @Test
+    void shouldShareNotFoundOfConcurrentLookupsOfUnknownEmail() throws Exception {
+        saveUser("Hans", "hans@gmail.com");
+        userCache.invalidateAll();
+
+        List<Integer> statuses = herd(() -> {
+            try {
+                userService.getUserByEmail("hans2@gmail.com");
+                return 200;
+            } catch (ResponseStatusException e) {
+                return e.getRawStatusCode();
+            }
+        });
+
+        verify(userRepository, atMost(1)).findByEmail("hans2@gmail.com");
+        statuses.forEach(status -> assertEquals(404, status));
+    }
+
+    @Test
+    void shouldShareOneQueryForConcurrentRequestsOfSamePage() throws Exception {
+        saveUser("Hans", "hans@gmail.com");
+        saveUser("Maria", "maria@gmail.com");
+
+        List<Page<VersionedUserDto>> pages = herd(() -> userService.getAllUsersByPage(PageRequest.of(0, 10)));
+
+        verify(userRepository, times(1)).findAllDtos(PageRequest.of(0, 10));
+        pages.forEach(page -> assertEquals(2, page.getTotalElements()));
+    }
+
+    @Test
+    void shouldNotShareQueriesOfDifferentPages() throws Exception {
+        herd(() -> userService.getAllUsersByPage(PageRequest.of(0, 10)));
+        herd(() -> userService.getAllUsersByPage(PageRequest.of(1, 10)));
+
+        verify(userRepository, times(1)).findAllDtos(PageRequest.of(0, 10));
+        verify(userRepository, times(1)).findAllDtos(PageRequest.of(1, 10));
+    }
+
+    private void saveUser(String name, String email) {
+        userRepository.save(User.builder()
+                .name(name)
+                .email(email)
+                .birthDate(LocalDate.parse("1993-11-02"))
+                .build());
+    }
+
+    private <T> List<T> herd(Callable<T> request) throws InterruptedException, ExecutionException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(HERD_SIZE)) {
+            for (int i = 0; i < HERD_SIZE; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return request.call();
+                }));
+            }
+            start.countDown();
+        }
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,122 @@
+package com.codenomads.springrestapidemo.validation;
+
+import com.codenomads.springrestapidemo.model.User;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.ValidatorFactory;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the validator with the regular expression it replaces on generated inputs. These
+ * are built from the characters that matter to the expression, so that a good share of them
+ * is accepted and the rest fails in all the ways the expression can fail.
+ */
+class EmailAddressValidatorTest {
+
+    private static final Pattern PATTERN = Pattern.compile(EmailAddressValidator.REGEXP);
+    private static final String ALPHABET = "aZ09_-.@";
+    private static final String NOISE = " +äÉ\n\t\u0000";
+    private static final long SEED = 19931102L;
+    private static final int SAMPLES = 500_000;
+
+    private static ValidatorFactory validatorFactory;
+    private static Validator validator;
+
+    @BeforeAll
+    static void createValidator() {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        validator = validatorFactory.getValidator();
+    }
+
+    @AfterAll
+    static void closeValidator() {
+        validatorFactory.close();
+    }
+
+    @Test
+    void shouldAcceptExactlyWhatTheRegularExpressionAccepts() {
+        Random random = new Random(SEED);
+        int accepted = 0;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            String value = sample % 2 == 0 ? emailLike(random) : arbitrary(random);
+            boolean expected = PATTERN.matcher(value).matches();
+            assertEquals(expected, EmailAddressValidator.isEmailAddress(value),
+                    () -> "Disagreement on '%s' (seed %d)".formatted(value, SEED));
+            accepted += expected ? 1 : 0;
+        }
+        assertTrue(accepted > SAMPLES / 10, "Too few accepted samples: " + accepted);
+        assertTrue(accepted < SAMPLES * 9 / 10, "Too few rejected samples: " + accepted);
+    }
+
+    @Test
+    void shouldAgreeOnEdgeCases() {
+        List<String> values = List.of("", "@", "a@b.cd", "a@b.c", "a@b.cdefg", "a@.cd", "a@b..cd", "@b.cd",
+                "a@b.cd.", "a@b", "a@cd", ".@-.__", "a@b@c.de", "a.b-c_d@e-f.g_h.ij", "a@b.cd\n", "ä@b.cd");
+        for (String value : values) {
+            assertEquals(PATTERN.matcher(value).matches(), EmailAddressValidator.isEmailAddress(value), value);
+        }
+    }
+
+    @Test
+    void shouldSkipConstraintsOfValidatedUser() {
+        User user = User.builder()
+                .name("Hans")
+                .email("not-an-email")
+                .build();
+
+        assertEquals(1, validator.validate(user).size());
+
+        user.setValidated(true);
+
+        assertTrue(validator.validate(user).isEmpty());
+    }
+
+    private static String emailLike(Random random) {
+        StringBuilder value = new StringBuilder();
+        append(value, random, 1 + random.nextInt(4));
+        value.append('@');
+        int labels = random.nextInt(4);
+        for (int label = 0; label < labels; label++) {
+            append(value, random, 1 + random.nextInt(3));
+            value.append('.');
+        }
+        append(value, random, 1 + random.nextInt(5));
+        return value.toString();
+    }
+
+    /**
+     * Mostly characters allowed in either part, with an occasional dot, at sign or character
+     * that the expression never accepts.
+     */
+    private static void append(StringBuilder value, Random random, int length) {
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(40);
+            if (kind == 0) {
+                value.append(NOISE.charAt(random.nextInt(NOISE.length())));
+            } else if (kind == 1) {
+                value.append(random.nextBoolean() ? '.' : '@');
+            } else {
+                value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length() - 2)));
+            }
+        }
+    }
+
+    private static String arbitrary(Random random) {
+        StringBuilder value = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            value.append(random.nextInt(20) == 0
+                    ? NOISE.charAt(random.nextInt(NOISE.length()))
+                    : ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return value.toString();
+    }
+}